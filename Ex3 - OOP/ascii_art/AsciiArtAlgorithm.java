@@ -1,45 +1,440 @@
 package ascii_art;
 
+import ascii_art.exceptions.ImageLoadingException;
+import ascii_art.exceptions.InvalidCommandException;
+import image.RowScheduler;
+import image_char_matching.ShapeCharMatcher;
 import image_char_matching.SubImgCharMatcher;
 
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 /**
  * This class is responsible for running the algorithm that creates the ASCII art.
+ * Sub-images are matched to characters by their brightness, or, in the matching modes set by the 'match'
+ * command, by their brightness with error diffusion, or by their shape.
  * @author Shir Rashkovits and Yoav Dolev
  */
 public class AsciiArtAlgorithm {
+    // The number of equal brightness buckets over [0, 1] the sub-images are indexed by
+    private static final int INDEX_BUCKETS = 4096;
+
+    // Error messages
+    private static final String MATCH_MODE_FORMAT_ERROR = "Did not change matching mode due to incorrect " +
+                                                                                                "format.";
+
+    // Messages for user feedback
+    private static final String MATCH_MODE_MESSAGE = "Matching mode set to %s.";
+
+    /**
+     * The ways sub-images can be matched to characters.
+     */
+    public enum MatchMode {
+        /**
+         * Matches every sub-image to the character of the nearest brightness.
+         */
+        BRIGHTNESS("brightness"),
+        /**
+         * Matches every sub-image by its brightness, diffusing the error of each match to the sub-images
+         * around it (see {@link ErrorDiffusionDitherer}).
+         */
+        DITHERED("dithered"),
+        /**
+         * Matches every sub-image to the character whose glyph is the most similar to its shape.
+         */
+        SHAPE("shape");
+
+        private final String name;
+
+        MatchMode(String name) {
+            this.name = name;
+        }
+    }
+
     private final SubImgCharMatcher subImageMatcher; // Used for matching sub-images brightness to
     // characters.
+    private final ShapeCharMatcher shapeMatcher; // Used for matching sub-images shape to characters
     private final AsciiArtImageManager imageManager; // Used for getting the sub images brightness
+    private final RowScheduler rowScheduler; // Used for matching the rows, possibly in parallel
+    private final PipelineStats stats; // Records the matching stage of run()
+
+    // The last ASCII art created by run(), kept for re-matching only the sub-images a charset edit affects
+    private double[][] lastBrightness; // The brightness grid the last ASCII art was created from
+    private char[][] lastAsciiArt;
+    private TreeMap<Double, Character> lastCharsSnapshot; // The characters it was matched with
+    // Indices (row * width + col) of the sub-images of the last brightness grid, ordered by brightness
+    // bucket, and the start of each bucket in them. Built when first needed.
+    private int[] subImagesByBucket;
+    private int[] bucketStarts;
+    private MatchMode matchMode = MatchMode.BRIGHTNESS;
+    // The ditherer of the dithered matching mode, and the characters it was built with
+    private ErrorDiffusionDitherer ditherer;
+    private TreeMap<Double, Character> dithererCharsSnapshot;
 
     /**
-     * Constructs an AsciiArtAlgorithm with a specific {@link SubImgCharMatcher} and
-     * {@link AsciiArtImageManager}.
+     * Constructs an AsciiArtAlgorithm with a specific {@link SubImgCharMatcher}, {@link ShapeCharMatcher},
+     * {@link AsciiArtImageManager}, {@link RowScheduler} and {@link PipelineStats}.
      *
      * @param subImageMatcher The SubImgCharMatcher to use for matching sub-images to characters.
+     * @param shapeMatcher The ShapeCharMatcher to use for matching sub-images to characters in the shape
+     *                     matching mode, of the same characters.
      * @param imageManager The ImageManager to use for getting the image and resolution.
+     * @param rowScheduler The scheduler to match the rows of sub-images with.
+     * @param stats The statistics to record the matching stage of {@link #run()} and
+     *              {@link #runIncrementally(double[][])} in.
      */
-    public AsciiArtAlgorithm(SubImgCharMatcher subImageMatcher, AsciiArtImageManager imageManager) {
+    public AsciiArtAlgorithm(SubImgCharMatcher subImageMatcher, ShapeCharMatcher shapeMatcher,
+                             AsciiArtImageManager imageManager, RowScheduler rowScheduler,
+                             PipelineStats stats) {
         this.subImageMatcher = subImageMatcher;
+        this.shapeMatcher = shapeMatcher;
         this.imageManager = imageManager;
+        this.rowScheduler = rowScheduler;
+        this.stats = stats;
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm that is not attached to an {@link AsciiArtImageManager}, for converting
+     * brightness grids calculated elsewhere with {@link #run(double[][])}.
+     *
+     * @param subImageMatcher The SubImgCharMatcher to use for matching sub-images to characters.
+     * @param rowScheduler The scheduler to match the rows of sub-images with.
+     */
+    public AsciiArtAlgorithm(SubImgCharMatcher subImageMatcher, RowScheduler rowScheduler) {
+        this(subImageMatcher, null, null, rowScheduler, null);
+    }
+
+    /**
+     * Changes the way sub-images are matched to characters by {@link #run()}, by the user's choice.
+     *
+     * @param commandArray The command string split into an array of words, which should include the
+     *                     matching mode argument ("brightness", "dithered" or "shape").
+     * @throws InvalidCommandException If the matching mode is not provided or is not recognized.
+     */
+    public void setMatchMode(String[] commandArray) throws InvalidCommandException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(MATCH_MODE_FORMAT_ERROR);
+        }
+        for (MatchMode mode : MatchMode.values()) {
+            if (mode.name.equals(commandArray[Command.MATCH_MODE_ARG_IDX])) {
+                matchMode = mode;
+                System.out.printf(MATCH_MODE_MESSAGE, mode.name);
+                System.out.println();
+                return;
+            }
+        }
+        throw new InvalidCommandException(MATCH_MODE_FORMAT_ERROR);
+    }
+
+    /**
+     * Gets the way sub-images are currently matched to characters by {@link #run()}.
+     *
+     * @return The current matching mode.
+     */
+    public MatchMode getMatchMode() {
+        return matchMode;
     }
 
     /**
      * Runs the algorithm that creates the ASCII art.
      * Each sub image in the image is replaced by the ascii character that best matches its brightness.
+     * Rows are matched independently, so the result is the same for any row scheduler.
+     * The last ASCII art is kept, so when only the characters changed since the last run (and not their min
+     * or max brightness), only the sub-images whose brightness is in the affected ranges are matched again
+     * (see {@link #runIncrementally(double[][])}).
+     * In the other matching modes, every sub-image is matched from scratch, with error diffusion (see
+     * {@link #runDithered(double[][])}) or by its shape (see {@link #runShapes(double[][], int)}). At the
+     * image's highest resolution the sub-images are single pixels, which have no shape, so they are matched
+     * by their brightness even in the shape matching mode.
+     * Assumes this algorithm is attached to an {@link AsciiArtImageManager}.
      * @return the 2D array of chars that represents the ASCII art image.
+     * @throws ImageLoadingException If the image set by the last 'image' command failed to load.
      */
-    public char[][] run() {
+    public char[][] run() throws ImageLoadingException {
+        if (matchMode == MatchMode.SHAPE) {
+            double[][] shapeCells = imageManager.getShapeCellsNormalizedBrightness();
+            int cellsPerSide = shapeCells[0].length / imageManager.getResolution();
+            if (cellsPerSide > 1) { // A single cell is thresholded to one of two shapes, all of it or none
+                stats.startStage(PipelineStats.Stage.MATCHING);
+                char[][] asciiArt = runShapes(shapeCells, cellsPerSide);
+                stats.count(PipelineStats.Counter.ART_FULL, 1);
+                stats.count(PipelineStats.Counter.SUB_IMAGES_MATCHED,
+                            (long) asciiArt.length * asciiArt[0].length);
+                stats.endStage(PipelineStats.Stage.MATCHING);
+                return asciiArt;
+            }
+        }
         double[][] subImagesNormalizedBrightness = imageManager.getSubImagesNormalizedBrightness();
+        if (matchMode == MatchMode.DITHERED) {
+            stats.startStage(PipelineStats.Stage.MATCHING);
+            long treeMapLookups = subImageMatcher.getTreeMapLookupCount();
+            long lookupTableBuilds = subImageMatcher.getLookupTableBuildCount();
+            char[][] asciiArt = runDithered(subImagesNormalizedBrightness);
+            stats.count(PipelineStats.Counter.ART_FULL, 1);
+            countMatches((long) asciiArt.length * asciiArt[0].length, treeMapLookups, lookupTableBuilds);
+            stats.endStage(PipelineStats.Stage.MATCHING);
+            return asciiArt;
+        }
+        return runIncrementally(subImagesNormalizedBrightness);
+    }
+
+    /**
+     * Runs the algorithm on a given grid of sub-images brightness, like {@link #run(double[][])}, but keeps
+     * the ASCII art it creates. When it is given the same grid again (the same array, as the image manager
+     * returns until the image or the resolution change) and only the characters changed since (and not their
+     * min or max brightness), only the sub-images whose brightness is in the affected ranges are matched
+     * again; when nothing changed, the last ASCII art is returned as is. The matching stage is recorded in
+     * the statistics.
+     * @param subImagesNormalizedBrightness the normalized brightness of each sub-image, not modified after.
+     * @return a copy of the 2D array of chars that represents the ASCII art image.
+     */
+    public char[][] runIncrementally(double[][] subImagesNormalizedBrightness) {
+        stats.startStage(PipelineStats.Stage.MATCHING);
+        long treeMapLookups = subImageMatcher.getTreeMapLookupCount();
+        long lookupTableBuilds = subImageMatcher.getLookupTableBuildCount();
+        long matchedSubImages = 0;
+
+        TreeMap<Double, Character> charsSnapshot = subImageMatcher.getBrightnessSnapshot();
+        if (subImagesNormalizedBrightness != lastBrightness || !canRematchAffectedSubImages(charsSnapshot)) {
+            lastAsciiArt = run(subImagesNormalizedBrightness);
+            lastBrightness = subImagesNormalizedBrightness;
+            subImagesByBucket = null;
+            matchedSubImages = (long) lastAsciiArt.length * lastAsciiArt[0].length;
+            stats.count(PipelineStats.Counter.ART_FULL, 1);
+        } else if (!charsSnapshot.equals(lastCharsSnapshot)) {
+            matchedSubImages = rematchAffectedSubImages(charsSnapshot);
+            stats.count(PipelineStats.Counter.ART_INCREMENTAL, 1);
+        } else {
+            stats.count(PipelineStats.Counter.ART_REUSED, 1);
+        }
+        lastCharsSnapshot = charsSnapshot;
+
+        countMatches(matchedSubImages, treeMapLookups, lookupTableBuilds);
+        stats.endStage(PipelineStats.Stage.MATCHING);
+
+        char[][] asciiArt = new char[lastAsciiArt.length][];
+        for (int row = 0; row < asciiArt.length; row++) {
+            asciiArt[row] = lastAsciiArt[row].clone();
+        }
+        return asciiArt;
+    }
+
+    /**
+     * Runs the algorithm on a given grid of sub-images brightness.
+     * Each sub image is replaced by the ascii character that best matches its brightness.
+     * @param subImagesNormalizedBrightness the normalized brightness of each sub-image.
+     * @return the 2D array of chars that represents the ASCII art image.
+     */
+    public char[][] run(double[][] subImagesNormalizedBrightness) {
         int height = subImagesNormalizedBrightness.length;
         int width = subImagesNormalizedBrightness[0].length;
 
         char[][] asciiArt = new char[height][width];
-        for (int row = 0; row < height; row++) {
+        rowScheduler.forEachRow(height, row -> {
             for (int col = 0; col < width; col++) {
                 asciiArt[row][col] = subImageMatcher.getCharByImageBrightness(
                                                                     subImagesNormalizedBrightness[row][col]);
             }
+        });
+        return asciiArt;
+    }
+
+    /**
+     * Runs the algorithm on a given grid of sub-images brightness, with error diffusion: each sub image is
+     * replaced by the ascii character that best matches its brightness plus the error diffused to it, from
+     * the sub-images before it in its row and in the row above. The rows are dithered in a wavefront of
+     * tiles, possibly in parallel (see {@link ErrorDiffusionDitherer}), and the result is the same for any
+     * row scheduler. The ditherer is kept until the characters change.
+     * @param subImagesNormalizedBrightness the normalized brightness of each sub-image.
+     * @return the 2D array of chars that represents the ASCII art image.
+     */
+    public char[][] runDithered(double[][] subImagesNormalizedBrightness) {
+        int height = subImagesNormalizedBrightness.length;
+        int width = subImagesNormalizedBrightness[0].length;
+        TreeMap<Double, Character> charsSnapshot = subImageMatcher.getBrightnessSnapshot();
+        if (!charsSnapshot.equals(dithererCharsSnapshot)) {
+            ditherer = new ErrorDiffusionDitherer(subImageMatcher);
+            dithererCharsSnapshot = charsSnapshot;
         }
+
+        char[][] asciiArt = new char[height][width];
+        ditherer.ditherGrid(subImagesNormalizedBrightness, asciiArt, rowScheduler);
+        return asciiArt;
+    }
+
+    /**
+     * Runs the algorithm on a given grid of brightness cells, matching every sub-image by its shape: the
+     * sub-image is thresholded at its own mean brightness into a 16x16 black and white bitmap, and replaced
+     * by the character whose glyph differs from it in the fewest pixels. Nothing is allocated per sub-image.
+     * @param shapeCells the normalized brightness of the cells the sub-images are divided to, up to 16x16
+     *                   cells per sub-image (fewer when the sub-images are smaller than 16x16 pixels).
+     * @param cellsPerSide the number of cells along each side of a sub-image, a power of two from 2 to 16.
+     * @return the 2D array of chars that represents the ASCII art image.
+     */
+    public char[][] runShapes(double[][] shapeCells, int cellsPerSide) {
+        int height = shapeCells.length / cellsPerSide;
+        int width = shapeCells[0].length / cellsPerSide;
+
+        char[][] asciiArt = new char[height][width];
+        rowScheduler.forEachRow(height, row -> {
+            int top = row * cellsPerSide;
+            for (int col = 0; col < width; col++) {
+                int left = col * cellsPerSide;
+                double threshold = ShapeCharMatcher.getThreshold(shapeCells, top, left, cellsPerSide);
+                asciiArt[row][col] = shapeMatcher.getCharByShape(
+                        ShapeCharMatcher.thresholdWord(shapeCells, top, left, cellsPerSide, 0, threshold),
+                        ShapeCharMatcher.thresholdWord(shapeCells, top, left, cellsPerSide, 1, threshold),
+                        ShapeCharMatcher.thresholdWord(shapeCells, top, left, cellsPerSide, 2, threshold),
+                        ShapeCharMatcher.thresholdWord(shapeCells, top, left, cellsPerSide, 3, threshold));
+            }
+        });
         return asciiArt;
     }
-}
\ No newline at end of file
+
+    /**
+     * Updates the ASCII art of the previous frame of an animation to the current frame.
+     * Only the sub-images whose brightness changed since the previous frame are matched again, since the
+     * others would be matched to the same characters.
+     * @param previousBrightness the normalized brightness of each sub-image in the previous frame.
+     * @param subImagesNormalizedBrightness the normalized brightness of each sub-image in the current frame,
+     *                                      of the same dimensions.
+     * @param asciiArt the ASCII art of the previous frame, which is updated in place.
+     * @return for each sub-image, whether its character changed.
+     */
+    public boolean[][] update(double[][] previousBrightness, double[][] subImagesNormalizedBrightness,
+                              char[][] asciiArt) {
+        int height = subImagesNormalizedBrightness.length;
+        int width = subImagesNormalizedBrightness[0].length;
+
+        boolean[][] changedChars = new boolean[height][width];
+        rowScheduler.forEachRow(height, row -> {
+            for (int col = 0; col < width; col++) {
+                if (subImagesNormalizedBrightness[row][col] == previousBrightness[row][col]) {
+                    continue;
+                }
+                char newChar = subImageMatcher.getCharByImageBrightness(
+                                                                    subImagesNormalizedBrightness[row][col]);
+                changedChars[row][col] = newChar != asciiArt[row][col];
+                asciiArt[row][col] = newChar;
+            }
+        });
+        return changedChars;
+    }
+
+    /*
+     * Records the number of sub-images a run matched, and how many of them the matcher's lookup table
+     * answered, given the matcher's counters before the run.
+     */
+    private void countMatches(long matchedSubImages, long treeMapLookups, long lookupTableBuilds) {
+        long lookupTableMisses = subImageMatcher.getTreeMapLookupCount() - treeMapLookups;
+        stats.count(PipelineStats.Counter.SUB_IMAGES_MATCHED, matchedSubImages);
+        stats.count(PipelineStats.Counter.LOOKUP_TABLE_HITS, matchedSubImages - lookupTableMisses);
+        stats.count(PipelineStats.Counter.LOOKUP_TABLE_MISSES, lookupTableMisses);
+        stats.count(PipelineStats.Counter.LOOKUP_TABLE_BUILDS,
+                    subImageMatcher.getLookupTableBuildCount() - lookupTableBuilds);
+    }
+
+    /*
+     * Checks whether the last ASCII art can be updated to the given characters by re-matching only some of
+     * its sub-images. Each brightness is un-normalized by the min and max brightness of the characters before
+     * it is matched, so when one of them changes, every sub-image may be matched differently.
+     */
+    private boolean canRematchAffectedSubImages(TreeMap<Double, Character> charsSnapshot) {
+        return lastCharsSnapshot != null &&
+               lastCharsSnapshot.firstKey().equals(charsSnapshot.firstKey()) &&
+               lastCharsSnapshot.lastKey().equals(charsSnapshot.lastKey());
+    }
+
+    /*
+     * Re-matches the sub-images of the last ASCII art whose character may have changed by the charset edit.
+     * A brightness level that was added, removed or got another character only affects the brightness
+     * between the levels before and after it (among the old and the new levels); any brightness outside
+     * these ranges lies between two levels that did not change, so it is matched to the same character.
+     * Returns the number of sub-images matched.
+     */
+    private long rematchAffectedSubImages(TreeMap<Double, Character> charsSnapshot) {
+        if (subImagesByBucket == null) {
+            buildBrightnessIndex();
+        }
+        TreeSet<Double> allLevels = new TreeSet<>(lastCharsSnapshot.keySet());
+        allLevels.addAll(charsSnapshot.keySet());
+        long matchedSubImages = 0;
+        for (Double level : allLevels) {
+            if (Objects.equals(lastCharsSnapshot.get(level), charsSnapshot.get(level))) {
+                continue;
+            }
+            Double lowerLevel = allLevels.lower(level);
+            Double higherLevel = allLevels.higher(level);
+            matchedSubImages += rematchSubImagesInRange(lowerLevel != null ? lowerLevel : level,
+                                                        higherLevel != null ? higherLevel : level,
+                                                        charsSnapshot);
+        }
+        return matchedSubImages;
+    }
+
+    /*
+     * Re-matches the sub-images of the last ASCII art whose un-normalized brightness is in the given range,
+     * and returns their number. Only the buckets of the range are scanned, with a margin of one bucket on
+     * each side for rounding, and each sub-image in them is checked exactly.
+     */
+    private int rematchSubImagesInRange(double lowerLevel, double higherLevel,
+                                        TreeMap<Double, Character> charsSnapshot) {
+        int width = lastBrightness[0].length;
+        double minLevel = charsSnapshot.firstKey();
+        double levelsRange = charsSnapshot.lastKey() - minLevel;
+        int firstBucket = 0;
+        int lastBucket = INDEX_BUCKETS - 1;
+        if (levelsRange > 0) {
+            firstBucket = getBucket((lowerLevel - minLevel) / levelsRange) - 1;
+            lastBucket = getBucket((higherLevel - minLevel) / levelsRange) + 1;
+        }
+        firstBucket = Math.max(firstBucket, 0);
+        lastBucket = Math.min(lastBucket, INDEX_BUCKETS - 1);
+
+        int matchedSubImages = 0;
+        for (int i = bucketStarts[firstBucket]; i < bucketStarts[lastBucket + 1]; i++) {
+            int row = subImagesByBucket[i] / width;
+            int col = subImagesByBucket[i] % width;
+            double brightness = lastBrightness[row][col];
+            double level = subImageMatcher.getUnNormalizedBrightness(brightness);
+            if (level >= lowerLevel && level <= higherLevel) {
+                lastAsciiArt[row][col] = subImageMatcher.getCharByImageBrightness(brightness);
+                matchedSubImages++;
+            }
+        }
+        return matchedSubImages;
+    }
+
+    /*
+     * Orders the sub-images of the last brightness grid by brightness bucket, with a counting sort.
+     */
+    private void buildBrightnessIndex() {
+        int height = lastBrightness.length;
+        int width = lastBrightness[0].length;
+        bucketStarts = new int[INDEX_BUCKETS + 1];
+        for (double[] brightnessRow : lastBrightness) {
+            for (double brightness : brightnessRow) {
+                bucketStarts[getBucket(brightness) + 1]++;
+            }
+        }
+        for (int bucket = 0; bucket < INDEX_BUCKETS; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+        int[] nextInBucket = bucketStarts.clone();
+        subImagesByBucket = new int[height * width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                subImagesByBucket[nextInBucket[getBucket(lastBrightness[row][col])]++] = row * width + col;
+            }
+        }
+    }
+
+    /*
+     * Returns the index bucket of a normalized brightness.
+     */
+    private static int getBucket(double normalizedBrightness) {
+        int bucket = (int) (normalizedBrightness * INDEX_BUCKETS);
+        return Math.max(0, Math.min(bucket, INDEX_BUCKETS - 1));
+    }
+}
@@ -3,10 +3,19 @@ package ascii_art;
 import ascii_art.exceptions.ImageLoadingException;
 import ascii_art.exceptions.InvalidCommandException;
 import ascii_art.exceptions.ResolutionOutOfBoundsException;
+import image.BrightnessPyramid;
 import image.Image;
 import image.ImageProcessor;
+import image.ImageStripReader;
+import image.RowScheduler;
+import image_char_matching.ShapeCharMatcher;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Manages the resolution and processing of an image for ASCII art conversion.
@@ -15,8 +24,14 @@ import java.io.IOException;
 public class AsciiArtImageManager {
     // Default values
     private static final String DEFAULT_IMAGE_PATH = "cat.jpeg";
-    private static final String RESOLUTION_DOUBLE_COMMAND = "up";
-    private static final String RESOLUTION_HALVE_COMMAND = "down";
+    /**
+     * The argument of the 'res' command that doubles the resolution.
+     */
+    static final String RESOLUTION_DOUBLE_COMMAND = "up";
+    /**
+     * The argument of the 'res' command that halves the resolution.
+     */
+    static final String RESOLUTION_HALVE_COMMAND = "down";
 
     // Error messages
     private static final String IMAGE_UPLOAD_ERROR = "Did not execute due to problem with image file.";
@@ -25,28 +40,53 @@ public class AsciiArtImageManager {
     private static final String RESOLUTION_FORMAT_ERROR = "Did not change resolution due to incorrect " +
                                                                                                 "format.";
     private static final String IMAGE_FORMAT_ERROR = "Did not upload image due to incorrect format.";
-    private static final int DEFAULT_RESOLUTION = 128;
+    /**
+     * The resolution a new manager starts with.
+     */
+    static final int DEFAULT_RESOLUTION = 128;
+
+    private static final long DECODED_IMAGE_CACHE_BUDGET_BYTES = 256L << 20; // 256 MB of decoded pixels
+    private static final String IMAGE_LOADER_THREAD_NAME = "image-loader";
 
     // Messages for user feedback
     private static final String RESOLUTION_MESSAGE = "Resolution set to %d.";
 
 
     // Fields for image management
-    private Image image; // holds the padded image
+    private final RowScheduler rowScheduler; // Used for processing the image rows, possibly in parallel
+    private final PipelineStats stats; // Records the stages of loading an image
+    private final DecodedImageCache decodedImageCache; // Images loaded before, so they aren't decoded again
+    // Decodes images in the background, so the 'image' command returns at once. A daemon thread, so it
+    // doesn't keep the program running after 'exit'.
+    private final ExecutorService imageLoader = Executors.newSingleThreadExecutor(loader -> {
+        Thread thread = new Thread(loader, IMAGE_LOADER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private BrightnessPyramid brightnessPyramid; // sub-images brightness of the padded image, per resolution
+    private long imageHash; // The content hash of the padded image
+    private Future<LoadedImage> loadingImage; // The image set by the last 'image' command, until awaited
+    private volatile long loadGeneration; // Incremented by every 'image' command, to stop superseded loads
+    // Boundaries of the resolution of the image set by the last 'image' command, known before it is loaded
+    private int maxResolution;
+    private int minResolution;
     private int resolution; // Current resolution, assumed to be a power of 2
-    private double[][] subImagesNormalizedBrightnesses;
-    private boolean updateNeeded; // Flag to track if recalculation of brightnesses is needed
 
 
     /**
      * Constructs an ImageManager with a default image and resolution.
      *
+     * @param rowScheduler The scheduler to process the image rows with when loading an image.
+     * @param stats The statistics to record the stages of loading an image in.
      * @throws ImageLoadingException If an error occurs during image loading.
      */
-    public AsciiArtImageManager() throws ImageLoadingException {
+    public AsciiArtImageManager(RowScheduler rowScheduler, PipelineStats stats) throws ImageLoadingException {
+        this.rowScheduler = rowScheduler;
+        this.stats = stats;
+        this.decodedImageCache = new DecodedImageCache(DECODED_IMAGE_CACHE_BUDGET_BYTES);
         setImage(DEFAULT_IMAGE_PATH);
+        awaitImage();
         this.resolution = DEFAULT_RESOLUTION;
-        this.updateNeeded = true;
     }
 
     /**
@@ -66,25 +106,42 @@ public class AsciiArtImageManager {
         String resChange = commandArray[Command.RES_CHANGE_ARG_IDX];
         switch (resChange) {
             case RESOLUTION_DOUBLE_COMMAND:
-                if (resolution == image.getWidth()) {
+                if (resolution == maxResolution) {
                     throw new ResolutionOutOfBoundsException(OUT_OF_RESOLUTION_BOUNDARIES);
                 }
                 resolution *= 2;
                 break;
             case RESOLUTION_HALVE_COMMAND:
-                if (resolution == 1) {
+                if (resolution == minResolution) {
                     throw new ResolutionOutOfBoundsException(OUT_OF_RESOLUTION_BOUNDARIES);
                 }
-                resolution = Math.max(resolution / 2, 1);
+                resolution = resolution / 2;
                 break;
             default:
                 throw new InvalidCommandException(RESOLUTION_FORMAT_ERROR);
         }
 
-        updateNeeded = true;
         informSuccessfulResolutionChange();
     }
 
+    /**
+     * Gets the current resolution, the number of sub-images along one row.
+     *
+     * @return The current resolution.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Gets the highest resolution of the current image, in which every sub-image is a single pixel.
+     *
+     * @return The highest resolution of the current image.
+     */
+    public int getMaxResolution() {
+        return maxResolution;
+    }
+
     private void informSuccessfulResolutionChange() {
         System.out.printf(RESOLUTION_MESSAGE, resolution);
         System.out.println();
@@ -108,47 +165,189 @@ public class AsciiArtImageManager {
 
 
     /**
-     * Calculates or retrieves normalized brightness values for sub-images of the current image, based on
-     * resolution. Sub-images are created by dividing the current image according to the resolution. Each
-     * sub-image's average
-     * grayscale brightness is normalized (0 to 1). Brightness is recalculated only if the image or
-     * resolution has changed since the last call, enhancing efficiency. This supports ASCII art generation
-     * by mapping image brightness to characters.
+     * Retrieves the normalized brightness values for sub-images of the current image, based on
+     * resolution, after waiting for the image set by the last 'image' command to load if it is still loading.
+     * Sub-images are the squares of the current image according to the resolution. Each
+     * sub-image's average grayscale brightness is normalized (0 to 1). The brightness of every resolution
+     * is calculated once, when the image is loaded, in the image's brightness pyramid, so changing the
+     * resolution back and forth costs nothing. This supports ASCII art generation by mapping image
+     * brightness to characters.
      *
      * @return A 2D array of doubles with normalized brightness values for each sub-image, where 0 represents
      *         black and 1 represents white. The array dimensions correspond to the sub-image positions
-     *         (rows and columns) in the original image.
+     *         (rows and columns) in the original image. The array is shared and should not be modified.
+     * @throws ImageLoadingException If the image set by the last 'image' command failed to load.
      */
-    public double[][] getSubImagesNormalizedBrightness() {
-        if (!updateNeeded) {
-            return subImagesNormalizedBrightnesses;
-        }
+    public double[][] getSubImagesNormalizedBrightness() throws ImageLoadingException {
+        awaitImage();
+        stats.count(PipelineStats.Counter.PYRAMID_HITS, 1);
+        return brightnessPyramid.getLevel(resolution);
+    }
+
+    /**
+     * Retrieves the normalized brightness of the cells the sub-images of the current image are divided to
+     * for matching them by their shape, after waiting for the image set by the last 'image' command to load
+     * if it is still loading. Every sub-image is divided to 16x16 cells, or to single pixels if it is smaller
+     * than that, so the grid is the level of the brightness pyramid of up to 16 times the resolution.
+     *
+     * @return A 2D array of the normalized brightness of each cell, whose width is a multiple of the
+     *         resolution. The array is shared and should not be modified.
+     * @throws ImageLoadingException If the image set by the last 'image' command failed to load.
+     */
+    public double[][] getShapeCellsNormalizedBrightness() throws ImageLoadingException {
+        awaitImage();
+        stats.count(PipelineStats.Counter.PYRAMID_HITS, 1);
+        return brightnessPyramid.getLevel(Math.min(resolution * ShapeCharMatcher.SHAPE_SIZE,
+                                                   brightnessPyramid.getMaxResolution()));
+    }
+
+    /**
+     * Gets the content hash of the current image (see {@link ImageProcessor#calculateContentHash(Image)}),
+     * which is the same for images loaded from files with the same pixels.
+     *
+     * @return The content hash of the current image.
+     * @throws ImageLoadingException If the image set by the last 'image' command failed to load.
+     */
+    public long getImageHash() throws ImageLoadingException {
+        awaitImage();
+        return imageHash;
+    }
 
-        Image[][] subImages = ImageProcessor.divideIntoSubImages(image, resolution);
-        double[][] brightness = new double[subImages.length][subImages[0].length];
+    /*
+     * Waits for the image set by the last 'image' command to finish loading in the background, if it didn't
+     * already, and makes it the current image. If the image failed to load, the previous image remains the
+     * current one.
+     */
+    private void awaitImage() throws ImageLoadingException {
+        if (loadingImage == null) {
+            return;
+        }
+        Future<LoadedImage> load = loadingImage;
+        loadingImage = null;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    LoadedImage loadedImage = load.get();
+                    brightnessPyramid = loadedImage.brightnessPyramid;
+                    imageHash = loadedImage.imageHash;
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true; // The image is needed, so keep waiting for it
+                } catch (ExecutionException e) {
+                    // Restore the resolution boundaries of the previous image, if there is one, which the
+                    // resolution may have been changed beyond while the failed image was loading
+                    if (brightnessPyramid != null) {
+                        maxResolution = brightnessPyramid.getMaxResolution();
+                        minResolution = brightnessPyramid.getMinResolution();
+                        resolution = Math.max(minResolution, Math.min(resolution, maxResolution));
+                    }
+                    throw new ImageLoadingException(IMAGE_UPLOAD_ERROR);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        for (int row = 0; row < subImages.length; row++) {
-            for (int col = 0; col < subImages[0].length; col++) {
-                brightness[row][col] = ImageProcessor.calculateImageNormalizedGrayscaleAverage(
-                        subImages[row][col]);
+    /*
+     * Sets the current image to the image in the given file. Only the header of the file is read, or nothing
+     * if the current version of the file is in the decoded image cache, and the image is decoded, padded and
+     * its brightness pyramid is built on a background thread, superseding any image still loading.
+     */
+    private void setImage(String imagePath) throws ImageLoadingException {
+        DecodedImageCache.Key key;
+        DecodedImageCache.CachedImage cachedImage;
+        int paddedWidth;
+        int paddedHeight;
+        try {
+            key = DecodedImageCache.keyOf(imagePath);
+            cachedImage = decodedImageCache.get(key);
+            if (cachedImage != null) {
+                stats.count(PipelineStats.Counter.DECODED_IMAGE_CACHE_HITS, 1);
+                paddedWidth = cachedImage.getPaddedImage().getWidth();
+                paddedHeight = cachedImage.getPaddedImage().getHeight();
+            } else {
+                stats.count(PipelineStats.Counter.DECODED_IMAGE_CACHE_MISSES, 1);
+                try (ImageStripReader header = new ImageStripReader(imagePath)) {
+                    paddedWidth = header.getPaddedWidth();
+                    paddedHeight = header.getPaddedHeight();
+                }
             }
+        } catch (IOException e) {
+            throw new ImageLoadingException(IMAGE_UPLOAD_ERROR);
+        }
+
+        if (loadingImage != null) {
+            loadingImage.cancel(true);
+        }
+        long generation = ++loadGeneration;
+        loadingImage = imageLoader.submit(() -> loadImage(imagePath, key, cachedImage, generation));
+        // The resolution boundaries depend only on the dimensions, so 'res' doesn't wait for the image
+        maxResolution = paddedWidth;
+        minResolution = BrightnessPyramid.getMinResolution(paddedWidth, paddedHeight);
+    }
+
+    /*
+     * Loads an image on the background thread: decodes and pads it unless it was cached, and builds its
+     * brightness pyramid. Stops between the steps if a newer image was set meanwhile.
+     */
+    private LoadedImage loadImage(String imagePath, DecodedImageCache.Key key,
+                                  DecodedImageCache.CachedImage cachedImage, long generation)
+            throws ImageLoadingException {
+        if (cachedImage == null) {
+            cachedImage = decodeImage(imagePath, key);
         }
+        if (generation != loadGeneration) {
+            throw new CancellationException(); // Superseded, nobody waits for this image anymore
+        }
+
+        // Built once per image, every resolution is a lookup afterwards
+        stats.startStage(PipelineStats.Stage.BRIGHTNESS);
+        BrightnessPyramid pyramid = new BrightnessPyramid(cachedImage.getPaddedImage(), rowScheduler);
+        stats.endStage(PipelineStats.Stage.BRIGHTNESS);
+        stats.count(PipelineStats.Counter.PYRAMID_BUILDS, 1);
+        return new LoadedImage(pyramid, cachedImage.getImageHash());
+    }
 
-        this.subImagesNormalizedBrightnesses = brightness;
-        this.updateNeeded = false;
+    /*
+     * A loaded image: its brightness pyramid and its content hash.
+     */
+    private static final class LoadedImage {
+        private final BrightnessPyramid brightnessPyramid;
+        private final long imageHash;
 
-        return brightness;
+        private LoadedImage(BrightnessPyramid brightnessPyramid, long imageHash) {
+            this.brightnessPyramid = brightnessPyramid;
+            this.imageHash = imageHash;
+        }
     }
 
-    private void setImage(String imagePath) throws ImageLoadingException {
+    /*
+     * Decodes and pads the image in the given file, calculates its content hash, and caches it. The padding
+     * is not stored, so only the decoded pixels count towards the cache's budget.
+     */
+    private DecodedImageCache.CachedImage decodeImage(String imagePath, DecodedImageCache.Key key)
+            throws ImageLoadingException {
+        Image image;
+        stats.startStage(PipelineStats.Stage.DECODE);
         try {
             image = new Image(imagePath);
         } catch (IOException e) {
             throw new ImageLoadingException(IMAGE_UPLOAD_ERROR);
+        } finally {
+            stats.endStage(PipelineStats.Stage.DECODE);
         }
 
-        image = ImageProcessor.padImage(image);
-        updateNeeded = true;
+        stats.startStage(PipelineStats.Stage.PADDING);
+        Image paddedImage = ImageProcessor.padImage(image);
+        stats.endStage(PipelineStats.Stage.PADDING);
+        DecodedImageCache.CachedImage cachedImage = new DecodedImageCache.CachedImage(
+                paddedImage, ImageProcessor.calculateContentHash(paddedImage));
+        decodedImageCache.put(key, cachedImage, (long) image.getWidth() * image.getHeight() * Integer.BYTES);
+        return cachedImage;
     }
 
 }
@@ -5,7 +5,9 @@ import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -19,19 +21,34 @@ public class AsciiArtOutputManager {
     private static final String CONSOLE_OUTPUT_OPTION = "console";
     private static final String DEFAULT_OUTPUT_OPTION = CONSOLE_OUTPUT_OPTION;
     private static final String HTML_OUTPUT_OPTION = "html";
+    private static final String TEXT_FILE_OUTPUT_FILE_NAME = "out.txt";
+    private static final String TEXT_FILE_OUTPUT_OPTION = "txt";
+    private static final String FAST_HTML_OUTPUT_OPTION = "fast_html";
+    private static final String COMPACT_HTML_OUTPUT_OPTION = "compact_html";
+    private static final String RUN_LENGTH_HTML_OUTPUT_OPTION = "compact_html_rle";
     private static final String OUTPUT_FORMAT_ERROR = "Did not change output method due to incorrect " +
                                                                                                 "format.";
 
     private final Map<String, AsciiOutput> outputs = new HashMap<>(); // Available output methods
     private AsciiOutput currentOutput; // The currently selected output method
+    private final PipelineStats stats; // Records the output stage
 
     /**
      * Constructs an AsciiArtOutputManager and initializes available output methods.
+     *
+     * @param stats The statistics to record the output stage in.
      */
-    public AsciiArtOutputManager() {
+    public AsciiArtOutputManager(PipelineStats stats) {
+        this.stats = stats;
         // Initialize available output methods
         outputs.put(CONSOLE_OUTPUT_OPTION, new ConsoleAsciiOutput());
         outputs.put(HTML_OUTPUT_OPTION, new HtmlAsciiOutput(OUTPUT_FILE_NAME, FONT_TYPE));
+        // Bulk channel writes, for renders with millions of characters
+        outputs.put(TEXT_FILE_OUTPUT_OPTION, new TextFileAsciiOutput(TEXT_FILE_OUTPUT_FILE_NAME));
+        outputs.put(FAST_HTML_OUTPUT_OPTION, new HtmlFileAsciiOutput(OUTPUT_FILE_NAME, FONT_TYPE));
+        outputs.put(COMPACT_HTML_OUTPUT_OPTION, new CompactHtmlFileAsciiOutput(OUTPUT_FILE_NAME, FONT_TYPE));
+        outputs.put(RUN_LENGTH_HTML_OUTPUT_OPTION,
+                    new CompactHtmlFileAsciiOutput(OUTPUT_FILE_NAME, FONT_TYPE, true));
 
         // Set default output method
         this.currentOutput = outputs.get(DEFAULT_OUTPUT_OPTION);
@@ -62,6 +79,53 @@ public class AsciiArtOutputManager {
      * @param asciiArt The 2D array of characters representing the ASCII art to be output.
      */
     public void outputAsciiArt(char[][] asciiArt) {
+        stats.startStage(PipelineStats.Stage.OUTPUT);
         currentOutput.out(asciiArt);
+        stats.endStage(PipelineStats.Stage.OUTPUT);
+    }
+
+    /**
+     * Returns a streaming view of the current output method, to output ASCII art one row at a time.
+     * Output methods that can't stream get all the rows at once, when the art ends.
+     *
+     * @return The current output method as a {@link StreamingAsciiOutput}.
+     */
+    public StreamingAsciiOutput getStreamingOutput() {
+        if (currentOutput instanceof StreamingAsciiOutput) {
+            return (StreamingAsciiOutput) currentOutput;
+        }
+        return new CollectingAsciiOutput(currentOutput);
+    }
+
+    /*
+     * Collects the streamed rows, and writes them to an output that can't stream when the art ends.
+     */
+    private static class CollectingAsciiOutput implements StreamingAsciiOutput {
+        private final AsciiOutput output;
+        private final List<char[]> rows = new ArrayList<>();
+
+        CollectingAsciiOutput(AsciiOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void begin() {
+            rows.clear();
+        }
+
+        @Override
+        public void outRow(char[] row) {
+            rows.add(row);
+        }
+
+        @Override
+        public void end() {
+            output.out(rows.toArray(new char[0][]));
+        }
+
+        @Override
+        public void abort() {
+            rows.clear();
+        }
     }
 }
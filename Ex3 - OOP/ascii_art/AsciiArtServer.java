@@ -0,0 +1,387 @@
+package ascii_art;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import image.Image;
+import image.ImageProcessor;
+import image.RowScheduler;
+import image_char_matching.GlyphBrightnessCache;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A local HTTP service that converts images to ASCII art, so other programs on the same host can convert
+ * images without starting a JVM for each one. The server listens on the loopback address only, and serves
+ * the requests concurrently on a bounded pool of threads. The renders that hold an image in memory at once
+ * are limited to as many as half the heap fits, at the largest image accepted.
+ * <p>
+ * POST /render with the bytes of an image file as the body converts it. The query parameters 'res' (the
+ * number of characters in each row, 128 by default), 'chars' (the characters to draw with, URL-encoded,
+ * the digits by default) and 'format' ('txt' by default, or 'html') choose the conversion. The sub-images are
+ * always matched by brightness, since the shell's matching modes are not available here. GET /stats
+ * reports the percentiles of the latencies of the latest completed renders.
+ * <p>
+ * All the requests share the glyph brightness cache, and a matcher of each character set, which is never
+ * changed after it is built, so it is safely matched with by many requests at once.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class AsciiArtServer {
+    private static final String USAGE = "Usage: java ascii_art.AsciiArtServer [port]";
+    private static final int PORT_ARG_IDX = 0;
+    private static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 0; // The system's default
+    private static final String RENDER_PATH = "/render";
+    private static final String STATS_PATH = "/stats";
+    private static final String POST_METHOD = "POST";
+    private static final String GET_METHOD = "GET";
+    private static final int MAX_IMAGE_BYTES = 64 << 20;
+    // The most pixels an image may have, checked in its header before it is decoded, since a small file may
+    // decompress to far more memory than its size (16M pixels take 64 MB once decoded)
+    private static final long MAX_IMAGE_PIXELS = 1L << 24;
+    // The most memory a render holds at once: the body, the decoded image, and the copy of its pixels
+    private static final long MAX_RENDER_BYTES = MAX_IMAGE_BYTES + 2L * Integer.BYTES * MAX_IMAGE_PIXELS;
+    private static final int RENDER_MEMORY_DIVISOR = 2; // Half the heap is left for everything else
+    private static final int REQUEST_THREADS_PER_PROCESSOR = 2; // Requests also wait on their connections
+    private static final int MAX_CACHED_CHARSETS = 256;
+    private static final int LATENCY_WINDOW = 10_000; // Latest requests the percentiles are calculated over
+    private static final int CHUNKED_RESPONSE = 0;
+
+    // Query parameters and their defaults
+    private static final String RESOLUTION_PARAM = "res";
+    private static final String CHARS_PARAM = "chars";
+    private static final String FORMAT_PARAM = "format";
+    private static final int DEFAULT_RESOLUTION = AsciiArtImageManager.DEFAULT_RESOLUTION;
+    private static final String DEFAULT_CHARS = "0123456789";
+    private static final String TEXT_FORMAT = "txt";
+    private static final String HTML_FORMAT = "html";
+    private static final String FONT_TYPE = "Courier New";
+
+    // Response statuses and content types
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int NOT_FOUND = 404;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+    private static final int INTERNAL_SERVER_ERROR = 500;
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+
+    // Error messages
+    private static final String NOT_FOUND_ERROR = "Did not execute due to unknown path.";
+    private static final String METHOD_ERROR = "Did not execute due to incorrect method.";
+    private static final String IMAGE_ERROR = "Did not execute due to problem with image file.";
+    private static final String IMAGE_SIZE_ERROR = "Did not execute due to image exceeding size limit.";
+    private static final String IMAGE_PIXELS_ERROR = "Did not execute due to image exceeding pixels limit.";
+    private static final String CONVERSION_ERROR = "Did not execute due to problem converting the image.";
+    private static final String RESOLUTION_FORMAT_ERROR = "Did not execute due to incorrect resolution " +
+                                                                                              "format.";
+    private static final String OUT_OF_RESOLUTION_BOUNDARIES = "Did not execute due to exceeding " +
+                                                                   "resolution boundaries.";
+    private static final String QUERY_FORMAT_ERROR = "Did not execute due to incorrect format.";
+    private static final String CHARS_FORMAT_ERROR = "Did not execute due to incorrect chars format.";
+    private static final String OUTPUT_FORMAT_ERROR = "Did not execute due to incorrect output format.";
+    private static final String START_ERROR_FORMAT = "Failed to start the server: %s%n";
+
+    // Messages for user feedback
+    private static final String LISTENING_FORMAT = "Serving ASCII art on http://%s:%d%s%n";
+    private static final String CHARSETS_FORMAT = "cached charsets %d%n";
+
+    private final Map<String, SubImgCharMatcher> matchers = new ConcurrentHashMap<>(); // By sorted chars
+    private final LatencyRecorder latencies = new LatencyRecorder(LATENCY_WINDOW);
+    // Renders that may hold an image in memory at once, as many as the heap's budget for them fits
+    private final Semaphore rendersInMemory = new Semaphore((int) Math.max(
+            1, Runtime.getRuntime().maxMemory() / RENDER_MEMORY_DIVISOR / MAX_RENDER_BYTES));
+
+    /**
+     * Starts the server on the loopback address, and serves until the process is stopped.
+     *
+     * @param args Optionally, the port to listen on (8080 by default).
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        try {
+            if (args.length > PORT_ARG_IDX) {
+                port = Integer.parseInt(args[PORT_ARG_IDX]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            new AsciiArtServer().start(port);
+        } catch (IOException e) {
+            System.err.printf(START_ERROR_FORMAT, e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts serving on the given port of the loopback address, with a fixed pool of threads, twice as many
+     * as the available processors, that the requests are queued for.
+     *
+     * @param port The port to listen on.
+     * @return The started server, which can be stopped with {@link HttpServer#stop(int)}.
+     * @throws IOException If the server can't listen on the port.
+     */
+    public HttpServer start(int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        HttpServer server = HttpServer.create(address, BACKLOG);
+        server.createContext(RENDER_PATH, this::handleRender);
+        server.createContext(STATS_PATH, this::handleStats);
+        server.setExecutor(Executors.newFixedThreadPool(
+                REQUEST_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors()));
+        server.start();
+        System.out.printf(LISTENING_FORMAT, address.getHostString(), server.getAddress().getPort(),
+                          RENDER_PATH);
+        return server;
+    }
+
+    /*
+     * Handles a render request: decodes the posted image, converts it with the requested parameters, and
+     * writes the ASCII art as the response. Only the latencies of completed renders are recorded, so the
+     * percentiles are not skewed by requests that were rejected early.
+     */
+    private void handleRender(HttpExchange exchange) throws IOException {
+        long startTime = System.nanoTime();
+        try (exchange) {
+            if (!RENDER_PATH.equals(exchange.getRequestURI().getPath())) {
+                sendError(exchange, NOT_FOUND, NOT_FOUND_ERROR);
+            } else if (!POST_METHOD.equals(exchange.getRequestMethod())) {
+                sendError(exchange, METHOD_NOT_ALLOWED, METHOD_ERROR);
+            } else if (render(exchange)) {
+                latencies.record(System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    /*
+     * Converts the posted image and writes the ASCII art, or an error if the request is invalid. Returns
+     * whether the ASCII art was written.
+     */
+    private boolean render(HttpExchange exchange) throws IOException {
+        Map<String, String> params;
+        try {
+            params = parseQuery(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) { // A malformed escape
+            sendError(exchange, BAD_REQUEST, QUERY_FORMAT_ERROR);
+            return false;
+        }
+        String format = params.getOrDefault(FORMAT_PARAM, TEXT_FORMAT);
+        if (!TEXT_FORMAT.equals(format) && !HTML_FORMAT.equals(format)) {
+            sendError(exchange, BAD_REQUEST, OUTPUT_FORMAT_ERROR);
+            return false;
+        }
+        int resolution;
+        try {
+            resolution = Integer.parseInt(params.getOrDefault(RESOLUTION_PARAM,
+                                                              String.valueOf(DEFAULT_RESOLUTION)));
+        } catch (NumberFormatException e) {
+            sendError(exchange, BAD_REQUEST, RESOLUTION_FORMAT_ERROR);
+            return false;
+        }
+        if (resolution <= 0 || Integer.bitCount(resolution) != 1) {
+            sendError(exchange, BAD_REQUEST, RESOLUTION_FORMAT_ERROR);
+            return false;
+        }
+        SubImgCharMatcher matcher = getMatcher(params.getOrDefault(CHARS_PARAM, DEFAULT_CHARS));
+        if (matcher == null) {
+            sendError(exchange, BAD_REQUEST, CHARS_FORMAT_ERROR);
+            return false;
+        }
+
+        // The body, the decoded image and the art are held until the response is written, so the requests
+        // that hold them are limited to the memory budget
+        rendersInMemory.acquireUninterruptibly();
+        try {
+            return renderImage(exchange, resolution, matcher, format);
+        } finally {
+            rendersInMemory.release();
+        }
+    }
+
+    /*
+     * Reads, decodes and converts the posted image in the given resolution, and writes the ASCII art, or an
+     * error if the image is invalid. Returns whether the ASCII art was written.
+     */
+    private static boolean renderImage(HttpExchange exchange, int resolution, SubImgCharMatcher matcher,
+                                       String format) throws IOException {
+        byte[] imageBytes = exchange.getRequestBody().readNBytes(MAX_IMAGE_BYTES + 1);
+        if (imageBytes.length > MAX_IMAGE_BYTES) {
+            sendError(exchange, PAYLOAD_TOO_LARGE, IMAGE_SIZE_ERROR);
+            return false;
+        }
+        Image image;
+        try {
+            image = decode(imageBytes);
+        } catch (IOException | RuntimeException e) { // Readers may fail unchecked on corrupt files
+            sendError(exchange, BAD_REQUEST, IMAGE_ERROR);
+            return false;
+        }
+        if (image == null) {
+            sendError(exchange, PAYLOAD_TOO_LARGE, IMAGE_PIXELS_ERROR);
+            return false;
+        }
+        int subImageSize = image.getWidth() / resolution;
+        if (subImageSize < 1 || subImageSize > image.getHeight()) {
+            sendError(exchange, BAD_REQUEST, OUT_OF_RESOLUTION_BOUNDARIES);
+            return false;
+        }
+
+        // Each request is converted in a single resolution, on its own thread
+        char[][] asciiArt;
+        try {
+            double[][] brightness = ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(image,
+                                                                                                 resolution);
+            asciiArt = new AsciiArtAlgorithm(matcher, RowScheduler.SEQUENTIAL).run(brightness);
+        } catch (RuntimeException e) {
+            sendError(exchange, INTERNAL_SERVER_ERROR, CONVERSION_ERROR);
+            return false;
+        }
+
+        boolean isHtml = HTML_FORMAT.equals(format);
+        exchange.getResponseHeaders().set(CONTENT_TYPE_HEADER,
+                                          isHtml ? HTML_CONTENT_TYPE : TEXT_CONTENT_TYPE);
+        exchange.sendResponseHeaders(OK, CHUNKED_RESPONSE);
+        StreamingAsciiOutput output = isHtml ?
+                new HtmlFileAsciiOutput(Channels.newChannel(exchange.getResponseBody()), FONT_TYPE) :
+                new TextFileAsciiOutput(Channels.newChannel(exchange.getResponseBody()));
+        output.out(asciiArt);
+        return true;
+    }
+
+    /*
+     * Handles a stats request: writes the latency percentiles of the latest completed renders.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!GET_METHOD.equals(exchange.getRequestMethod())) {
+                sendError(exchange, METHOD_NOT_ALLOWED, METHOD_ERROR);
+                return;
+            }
+            String stats = latencies.formatPercentiles() + String.format(CHARSETS_FORMAT, matchers.size());
+            send(exchange, OK, stats);
+        }
+    }
+
+    /*
+     * Returns the shared matcher of a character set, building it on first use, or null if the set is empty.
+     * Matchers of sets beyond the cached number are built for the request only.
+     */
+    private SubImgCharMatcher getMatcher(String chars) {
+        TreeSet<Character> sortedChars = new TreeSet<>();
+        for (char c : chars.toCharArray()) {
+            sortedChars.add(c);
+        }
+        if (sortedChars.isEmpty()) {
+            return null;
+        }
+        StringBuilder charsetKey = new StringBuilder();
+        sortedChars.forEach(charsetKey::append);
+        String key = charsetKey.toString();
+
+        SubImgCharMatcher matcher = matchers.get(key);
+        if (matcher != null) {
+            return matcher;
+        }
+        if (matchers.size() >= MAX_CACHED_CHARSETS) {
+            return buildMatcher(key);
+        }
+        return matchers.computeIfAbsent(key, AsciiArtServer::buildMatcher);
+    }
+
+    /*
+     * Builds a matcher of the given characters, rasterizing the unknown glyphs in a single pass.
+     */
+    private static SubImgCharMatcher buildMatcher(String chars) {
+        char[] charArray = chars.toCharArray();
+        GlyphBrightnessCache.getInstance().preload(charArray);
+        return new SubImgCharMatcher(charArray);
+    }
+
+    /*
+     * Decodes and pads an image file's bytes, or returns null if the image has more pixels than
+     * MAX_IMAGE_PIXELS. The dimensions are read from the header first, so the pixels of an image that is too
+     * large are never decoded. Throws IOException if no reader can decode the bytes.
+     */
+    private static Image decode(byte[] imageBytes) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException(IMAGE_ERROR);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_IMAGE_PIXELS) {
+                    return null;
+                }
+                BufferedImage decoded = reader.read(0);
+                return ImageProcessor.padImage(new Image(decoded.getRGB(0, 0, width, height, null, 0, width),
+                                                         width, height));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /*
+     * Parses the URL-encoded parameters of a query string. Parameters without a value are ignored.
+     * Throws IllegalArgumentException if a parameter is not properly encoded.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int separator = param.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(param.substring(0, separator), StandardCharsets.UTF_8),
+                           URLDecoder.decode(param.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /*
+     * Sends an error response with a plain text message.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, message + "\n");
+    }
+
+    /*
+     * Sends a response with a plain text body.
+     */
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(CONTENT_TYPE_HEADER, TEXT_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+}
@@ -2,14 +2,15 @@ package ascii_art;
 
 import ascii_art.exceptions.EmptyCharacterSetException;
 import ascii_art.exceptions.InvalidCommandException;
+import image_char_matching.ShapeCharMatcher;
 import image_char_matching.SubImgCharMatcher;
 
 import java.util.TreeSet;
 
 /**
  * Manages a set of ASCII characters for use in ASCII art generation.
- * It interfaces with a {@link SubImgCharMatcher} to update the set of characters
- * used for matching sub-images to characters.
+ * It interfaces with a {@link SubImgCharMatcher} and a {@link ShapeCharMatcher} to update the set of
+ * characters used for matching sub-images to characters.
  * @author Shir Rashkovits and Yoav Dolev
  */
 public class AsciiCharacterSetManager {
@@ -17,6 +18,7 @@ public class AsciiCharacterSetManager {
     private static final int PRINTABLE_ASCII_START = 32; // First printable ASCII character (space)
     private static final int PRINTABLE_ASCII_END_EXCLUSIVE = 127; // Just after the last printable
     // ASCII character (tilde `~`)
+    private static final int ASCII_SIZE = 128;
 
     // Error messages
     private static final String EMPTY_CHAR_SET_ERROR = "Did not execute. Charset is empty.";
@@ -38,6 +40,11 @@ public class AsciiCharacterSetManager {
     // checking
                                                 // Also useful for checking if charSet is empty
     private final SubImgCharMatcher subImgCharMatcher; // Matcher for associating characters with sub-images
+    private final ShapeCharMatcher shapeCharMatcher; // Matcher of the same characters by their glyph's shape
+    // The ASCII characters of the set as a 128-bit set (bit c % 64 of word c / 64), and the number of
+    // non-ASCII characters in it, kept up to date with the set for keying rendered ASCII art
+    private final long[] asciiCharsetBits = new long[ASCII_SIZE / Long.SIZE];
+    private int nonAsciiCharCount;
 
     /**
      * Constructs an AsciiCharacterSetManager with a specific {@link SubImgCharMatcher}.
@@ -46,6 +53,7 @@ public class AsciiCharacterSetManager {
      */
     public AsciiCharacterSetManager() {
         this.subImgCharMatcher = new SubImgCharMatcher(DEFAULT_CHARS);
+        this.shapeCharMatcher = new ShapeCharMatcher(DEFAULT_CHARS);
         this.sortedChars = new TreeSet<>();
         // Initialize with default characters
         for (char c : DEFAULT_CHARS) {
@@ -135,6 +143,16 @@ public class AsciiCharacterSetManager {
         }
     }
 
+    /**
+     * Returns the character set as a 128-bit set of ASCII characters, in which bit c % 64 of word c / 64 is
+     * set if character c is in the set. Two character sets are equal if and only if their bits are equal.
+     *
+     * @return A new array of the two words of the bit set, or null if the set contains non-ASCII characters.
+     */
+    public long[] getAsciiCharsetBits() {
+        return nonAsciiCharCount > 0 ? null : asciiCharsetBits.clone();
+    }
+
     /**
      * Returns the SubImgCharMatcher associated with this manager.
      * @return The SubImgCharMatcher.
@@ -143,6 +161,14 @@ public class AsciiCharacterSetManager {
         return this.subImgCharMatcher;
     }
 
+    /**
+     * Returns the ShapeCharMatcher associated with this manager, which matches the same characters.
+     * @return The ShapeCharMatcher.
+     */
+    public ShapeCharMatcher getShapeCharMatcher() {
+        return this.shapeCharMatcher;
+    }
+
     /*
      * Adds a character to the set and updates the SubImgCharMatcher.
      *
@@ -152,6 +178,8 @@ public class AsciiCharacterSetManager {
         boolean charExistInCharsSet = this.sortedChars.add(c);
         if (charExistInCharsSet) {
             this.subImgCharMatcher.addChar(c); // Update SubImgCharMatcher accordingly
+            this.shapeCharMatcher.addChar(c);
+            updateCharsetBits(c, true);
         }
     }
 
@@ -164,6 +192,8 @@ public class AsciiCharacterSetManager {
         boolean charExistInCharsSet = this.sortedChars.remove(c);
         if (charExistInCharsSet) { // Update SubImgCharMatcher accordingly
             this.subImgCharMatcher.removeChar(c);
+            this.shapeCharMatcher.removeChar(c);
+            updateCharsetBits(c, false);
         }
     }
 
@@ -180,9 +210,7 @@ public class AsciiCharacterSetManager {
             start = end;
             end = temp;
         }
-        for (char c = start; c <= end; c++) {
-                addChar(c);
-            }
+        addChars(start, end);
     }
 
     /*
@@ -207,9 +235,26 @@ public class AsciiCharacterSetManager {
      * Adds all printable ASCII characters to the set and updates the SubImgCharMatcher.
      */
     private void addAllAsciiCharacters() {
-        for (char c = PRINTABLE_ASCII_START; c < PRINTABLE_ASCII_END_EXCLUSIVE; c++) {
-                addChar(c);
+        addChars((char) PRINTABLE_ASCII_START, (char) (PRINTABLE_ASCII_END_EXCLUSIVE - 1));
+    }
+
+    /*
+     * Adds all the characters in [start, end] to the set, and updates the SubImgCharMatcher with all the new
+     * ones at once, so their glyphs are rendered in a single pass.
+     *
+     * @param start The first character to add.
+     * @param end   The last character to add, assumed to be at least start.
+     */
+    private void addChars(char start, char end) {
+        StringBuilder newChars = new StringBuilder();
+        for (char c = start; c <= end; c++) {
+            if (this.sortedChars.add(c)) {
+                newChars.append(c);
+                this.shapeCharMatcher.addChar(c);
+                updateCharsetBits(c, true);
             }
+        }
+        this.subImgCharMatcher.addChars(newChars.toString().toCharArray());
     }
 
     /*
@@ -220,4 +265,24 @@ public class AsciiCharacterSetManager {
             removeChar(c); // Leverage removeChar to handle SubImgCharMatcher update
         }
     }
+
+    /*
+     * Updates the bit set of the ASCII characters, or the count of the non-ASCII ones, after a character was
+     * added to the set or removed from it.
+     *
+     * @param c     The character that was added or removed.
+     * @param added Whether the character was added.
+     */
+    private void updateCharsetBits(char c, boolean added) {
+        if (c >= ASCII_SIZE) {
+            nonAsciiCharCount += added ? 1 : -1;
+            return;
+        }
+        long bit = 1L << (c % Long.SIZE);
+        if (added) {
+            asciiCharsetBits[c / Long.SIZE] |= bit;
+        } else {
+            asciiCharsetBits[c / Long.SIZE] &= ~bit;
+        }
+    }
 }
@@ -0,0 +1,324 @@
+package ascii_art;
+
+import ascii_art.exceptions.InvalidCommandException;
+import ascii_art.exceptions.ResolutionOutOfBoundsException;
+import ascii_art.exceptions.ShellException;
+import image.BrightnessPyramid;
+import image.Image;
+import image.ImageProcessor;
+import image.ImageStripReader;
+import image.RowScheduler;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-interactive entry point that converts a whole directory of images with the same commands.
+ * The command script holds shell commands that set up the conversion: 'add' and 'remove' edit a single
+ * character set that all the images share, 'res' adjusts the resolution from the default one, and 'output'
+ * chooses the format of the files ('txt' or 'fast_html') written to the output directory, one per image.
+ * The script is checked before any image is converted: 'res' may not leave the resolutions that at least one
+ * of the images supports, as read from their headers, and images that don't support the final resolution
+ * are skipped and reported.
+ * <p>
+ * Images are decoded and converted on two bounded worker pools, so decoding the next images overlaps
+ * converting the current ones, and at most twice as many images as workers are in memory at once.
+ * When all the images are done, the throughput is reported.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class BatchRunner {
+    private static final String USAGE = "Usage: java ascii_art.BatchRunner <command script> " +
+            "<input directory or glob> <output directory> [workers]";
+    private static final int SCRIPT_ARG_IDX = 0;
+    private static final int INPUT_ARG_IDX = 1;
+    private static final int OUTPUT_DIR_ARG_IDX = 2;
+    private static final int WORKERS_ARG_IDX = 3;
+    private static final int MIN_ARGS = 3;
+    private static final int IMAGES_IN_FLIGHT_PER_WORKER = 2; // One being decoded, one being converted
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final int MAX_RESOLUTION = 1 << 30; // The highest power of two an int holds
+    private static final String TEXT_FORMAT = "txt";
+    private static final String HTML_FORMAT = "fast_html";
+    private static final String TEXT_EXTENSION = ".txt";
+    private static final String HTML_EXTENSION = ".html";
+    private static final String FONT_TYPE = "Courier New";
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    // Error messages
+    private static final String UNSUPPORTED_COMMAND_ERROR = "Did not execute due to incorrect command.";
+    private static final String RESOLUTION_FORMAT_ERROR = "Did not change resolution due to incorrect " +
+                                                                                                "format.";
+    private static final String OUTPUT_FORMAT_ERROR = "Did not change output method due to incorrect " +
+                                                                                                "format.";
+    private static final String IMAGE_ERROR_FORMAT = "Skipped %s: %s%n";
+    private static final String RESOLUTION_BOUNDARIES_ERROR = "Did not change resolution due to exceeding " +
+                                                                                            "boundaries.";
+    private static final String OUT_OF_RESOLUTION_BOUNDARIES = "resolution is out of the image boundaries.";
+    private static final String OUTPUT_WRITE_ERROR = "the output file could not be written.";
+    private static final String SCRIPT_ERROR_FORMAT = "Failed to run the command script: %s%n";
+
+    // Messages for user feedback
+    private static final String SUMMARY_FORMAT = "Converted %d images (%d skipped) in %.2f seconds, " +
+                                                 "%.2f images per second.%n";
+
+    private final AsciiCharacterSetManager asciiCharacterSetManager; // Shared by all the workers
+    private int resolution = AsciiArtImageManager.DEFAULT_RESOLUTION;
+    private int minResolution = 1; // The lowest resolution any of the images supports
+    private int maxResolution = MAX_RESOLUTION; // The highest resolution any of the images supports
+    private String outputExtension = TEXT_EXTENSION;
+
+    /*
+     * Constructs a BatchRunner with the default character set.
+     */
+    private BatchRunner() {
+        this.asciiCharacterSetManager = new AsciiCharacterSetManager();
+    }
+
+    /**
+     * Runs a batch conversion.
+     *
+     * @param args The command script, the input directory or glob, the output directory, and optionally the
+     *             number of workers (the number of available processors by default).
+     */
+    public static void main(String[] args) {
+        if (args.length < MIN_ARGS) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        List<Path> images;
+        Path outputDirectory;
+        BatchRunner batchRunner = new BatchRunner();
+        try {
+            if (args.length > WORKERS_ARG_IDX) {
+                workers = Integer.parseInt(args[WORKERS_ARG_IDX]);
+            }
+            images = listImages(args[INPUT_ARG_IDX]);
+            outputDirectory = Paths.get(args[OUTPUT_DIR_ARG_IDX]);
+            batchRunner.readResolutionBoundaries(images);
+            batchRunner.runScript(Paths.get(args[SCRIPT_ARG_IDX]));
+        } catch (IOException | ShellException | IllegalArgumentException e) { // Bad numbers, paths and globs
+            System.err.printf(SCRIPT_ERROR_FORMAT, e.getMessage());
+            System.exit(1);
+            return;
+        }
+        batchRunner.convertAll(images, outputDirectory, Math.max(1, workers));
+    }
+
+    /*
+     * Sets the resolution boundaries to the widest ones the images support, reading only their headers.
+     * Images whose header can't be read are left out.
+     */
+    private void readResolutionBoundaries(List<Path> images) {
+        int widestMin = MAX_RESOLUTION;
+        int widestMax = 1;
+        for (Path imagePath : images) {
+            try (ImageStripReader header = new ImageStripReader(imagePath.toString())) {
+                int paddedWidth = header.getPaddedWidth();
+                widestMin = Math.min(widestMin, BrightnessPyramid.getMinResolution(paddedWidth,
+                                                                                   header.getPaddedHeight()));
+                widestMax = Math.max(widestMax, paddedWidth);
+            } catch (IOException e) {
+                // Reported when the image fails to decode
+            }
+        }
+        if (widestMin <= widestMax) { // At least one header was read
+            minResolution = widestMin;
+            maxResolution = widestMax;
+        }
+    }
+
+    /*
+     * Executes the setup commands of the script, one per line.
+     */
+    private void runScript(Path script) throws IOException, ShellException {
+        for (String line : Files.readAllLines(script)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] commandArray = line.trim().split(" ");
+            switch (Command.fromString(commandArray[0])) {
+                case ADD:
+                    asciiCharacterSetManager.addCharsByCommand(commandArray);
+                    break;
+                case REMOVE:
+                    asciiCharacterSetManager.removeCharsByCommand(commandArray);
+                    break;
+                case RES:
+                    adjustResolution(commandArray);
+                    break;
+                case OUTPUT:
+                    setOutputFormat(commandArray);
+                    break;
+                default:
+                    throw new InvalidCommandException(UNSUPPORTED_COMMAND_ERROR);
+            }
+        }
+        asciiCharacterSetManager.validateCharacterSet();
+    }
+
+    /*
+     * Doubles or halves the resolution of all the images, within the widest boundaries the images support.
+     * It is checked against each image's own boundaries when the image is converted.
+     */
+    private void adjustResolution(String[] commandArray) throws InvalidCommandException,
+            ResolutionOutOfBoundsException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(RESOLUTION_FORMAT_ERROR);
+        }
+        switch (commandArray[Command.RES_CHANGE_ARG_IDX]) {
+            case AsciiArtImageManager.RESOLUTION_DOUBLE_COMMAND:
+                if (resolution >= maxResolution) {
+                    throw new ResolutionOutOfBoundsException(RESOLUTION_BOUNDARIES_ERROR);
+                }
+                resolution *= 2;
+                break;
+            case AsciiArtImageManager.RESOLUTION_HALVE_COMMAND:
+                if (resolution <= minResolution) {
+                    throw new ResolutionOutOfBoundsException(RESOLUTION_BOUNDARIES_ERROR);
+                }
+                resolution /= 2;
+                break;
+            default:
+                throw new InvalidCommandException(RESOLUTION_FORMAT_ERROR);
+        }
+    }
+
+    /*
+     * Chooses the format of the output files.
+     */
+    private void setOutputFormat(String[] commandArray) throws InvalidCommandException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(OUTPUT_FORMAT_ERROR);
+        }
+        switch (commandArray[Command.OUTPUT_TYPE_ARG_IDX]) {
+            case TEXT_FORMAT:
+                outputExtension = TEXT_EXTENSION;
+                break;
+            case HTML_FORMAT:
+                outputExtension = HTML_EXTENSION;
+                break;
+            default:
+                throw new InvalidCommandException(OUTPUT_FORMAT_ERROR);
+        }
+    }
+
+    /*
+     * Lists the images of a directory, or the files that match a glob such as "frames/*.png", sorted by name.
+     */
+    private static List<Path> listImages(String input) throws IOException {
+        Path inputPath = Paths.get(input);
+        List<Path> images = new ArrayList<>();
+        if (Files.isDirectory(inputPath)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(inputPath)) {
+                files.forEach(images::add);
+            }
+        } else {
+            Path directory = inputPath.getParent() != null ? inputPath.getParent() : Paths.get("");
+            PathMatcher matcher = directory.getFileSystem().getPathMatcher(
+                    GLOB_SYNTAX + inputPath.getFileName());
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toAbsolutePath())) {
+                for (Path file : files) {
+                    if (matcher.matches(file.getFileName())) {
+                        images.add(file);
+                    }
+                }
+            }
+        }
+        images.removeIf(path -> !Files.isRegularFile(path));
+        images.sort(null);
+        return images;
+    }
+
+    /*
+     * Converts all the images, decoding and converting on separate pools, and reports the throughput.
+     */
+    private void convertAll(List<Path> images, Path outputDirectory, int workers) {
+        ExecutorService decodePool = Executors.newFixedThreadPool(workers);
+        ExecutorService convertPool = Executors.newFixedThreadPool(workers);
+        Semaphore imagesInFlight = new Semaphore(workers * IMAGES_IN_FLIGHT_PER_WORKER);
+        AtomicInteger converted = new AtomicInteger();
+        // Images are converted in a single resolution, so the workers skip the brightness pyramid, and the
+        // parallelism is between the images rather than inside them
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(
+                asciiCharacterSetManager.getSubImgCharMatcher(), RowScheduler.SEQUENTIAL);
+
+        long startTime = System.nanoTime();
+        List<CompletableFuture<Void>> conversions = new ArrayList<>();
+        for (Path imagePath : images) {
+            imagesInFlight.acquireUninterruptibly();
+            conversions.add(CompletableFuture
+                    .supplyAsync(() -> decode(imagePath), decodePool)
+                    .thenAcceptAsync(image -> {
+                        convert(image, asciiArtAlgorithm, getOutputPath(outputDirectory, imagePath));
+                        converted.incrementAndGet();
+                    }, convertPool)
+                    .whenComplete((ignored, error) -> {
+                        imagesInFlight.release();
+                        if (error != null) {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            System.err.printf(IMAGE_ERROR_FORMAT, imagePath, cause.getMessage());
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(ignored -> null)
+                .join();
+        double seconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+        decodePool.shutdown();
+        convertPool.shutdown();
+
+        System.out.printf(SUMMARY_FORMAT, converted.get(), images.size() - converted.get(), seconds,
+                          converted.get() / seconds);
+    }
+
+    /*
+     * Decodes and pads an image.
+     */
+    private static Image decode(Path imagePath) {
+        try {
+            return ImageProcessor.padImage(new Image(imagePath.toString()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Converts a padded image to ASCII art and writes it to the output path. Fails if the output file could
+     * not be written, so the image is reported with the images that failed to decode.
+     */
+    private void convert(Image image, AsciiArtAlgorithm asciiArtAlgorithm, Path outputPath) {
+        int subImageSize = image.getWidth() / resolution;
+        if (subImageSize < 1 || subImageSize > image.getHeight()) {
+            throw new IllegalStateException(OUT_OF_RESOLUTION_BOUNDARIES);
+        }
+        double[][] brightness = ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(image,
+                                                                                             resolution);
+        char[][] asciiArt = asciiArtAlgorithm.run(brightness);
+        ChannelAsciiOutput output = HTML_EXTENSION.equals(outputExtension) ?
+                new HtmlFileAsciiOutput(outputPath.toString(), FONT_TYPE) :
+                new TextFileAsciiOutput(outputPath.toString());
+        output.out(asciiArt);
+        if (!output.isWritten()) {
+            throw new IllegalStateException(OUTPUT_WRITE_ERROR);
+        }
+    }
+
+    /*
+     * Returns the path of the output file of an image, named after it, in the output directory.
+     */
+    private Path getOutputPath(Path outputDirectory, Path imagePath) {
+        return outputDirectory.resolve(imagePath.getFileName() + outputExtension);
+    }
+}
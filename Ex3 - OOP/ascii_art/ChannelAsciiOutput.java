@@ -0,0 +1,241 @@
+package ascii_art;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base class of outputs that write ASCII art to a file through a {@link FileChannel}. Whole rows, or whole
+ * runs of characters of a row, are encoded as UTF-8 at once by a {@link CharsetEncoder} into a single
+ * reusable {@link ByteBuffer}, which is written to the channel in bulk whenever it fills up, instead of
+ * encoding and writing character by character. Subclasses define the format of the file by its header,
+ * footer and the encoding of each row. The art may also be written to an open channel instead of a file,
+ * such as the body of an HTTP response.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public abstract class ChannelAsciiOutput implements StreamingAsciiOutput {
+    private static final int BUFFER_SIZE = 1 << 16;
+    // For surrogates that are not part of a pair, which can't be encoded
+    private static final byte[] REPLACEMENT_BYTES = {'?'};
+    private static final String WRITE_ERROR = "Did not write output due to problem with output file.";
+
+    private final String filename; // null when writing to a given channel
+    private final WritableByteChannel givenChannel; // null when writing to a file
+    // A heap buffer, since the encoder encodes between arrays in bulk, and only character by character into
+    // a direct buffer; the channel copies it out in a single block per write
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .replaceWith(REPLACEMENT_BYTES);
+    private char[] textChars = new char[0]; // The characters of the text put last, reused
+    private WritableByteChannel channel; // Open between begin and end, null if writing failed
+    private boolean written; // Whether the last ASCII art was written completely
+
+    /**
+     * Constructs an output to the given file. The file is replaced by every ASCII art written to it.
+     *
+     * @param filename The path of the file to write to.
+     */
+    protected ChannelAsciiOutput(String filename) {
+        this.filename = filename;
+        this.givenChannel = null;
+    }
+
+    /**
+     * Constructs an output to an open channel, which is closed when the ASCII art was written to it, so a
+     * single ASCII art can be written.
+     *
+     * @param channel The channel to write to.
+     */
+    protected ChannelAsciiOutput(WritableByteChannel channel) {
+        this.filename = null;
+        this.givenChannel = channel;
+    }
+
+    /**
+     * Opens the file, replacing its content, and writes the header.
+     */
+    @Override
+    public void begin() {
+        buffer.clear();
+        written = false;
+        if (givenChannel != null) {
+            channel = givenChannel;
+            putString(getHeader());
+            return;
+        }
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            handleWriteError();
+            return;
+        }
+        putString(getHeader());
+    }
+
+    /**
+     * Encodes the row into the buffer, writing the buffer to the file whenever it fills up.
+     *
+     * @param row The characters of the row.
+     */
+    @Override
+    public void outRow(char[] row) {
+        if (channel != null) {
+            putRow(row);
+        }
+    }
+
+    /**
+     * Writes the footer and whatever is left in the buffer, and closes the file (or the given channel).
+     */
+    @Override
+    public void end() {
+        if (channel == null) {
+            return;
+        }
+        putString(getFooter());
+        flush();
+        if (channel == null) { // Writing the rest failed
+            return;
+        }
+        try {
+            channel.close();
+            written = true;
+        } catch (IOException e) {
+            handleWriteError();
+        }
+        channel = null;
+    }
+
+    /**
+     * Checks whether the last ASCII art was written completely: its file was opened, every row and the
+     * footer were written, and it was closed, all without an error.
+     *
+     * @return true if the last ASCII art was written completely, false if writing it failed, it was
+     * aborted, or it didn't end yet.
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * Writes the rows that are left in the buffer, without the footer, and closes the file (or the given
+     * channel), so a stopped ASCII art doesn't keep it open.
+     */
+    @Override
+    public void abort() {
+        if (channel == null) {
+            return;
+        }
+        flush();
+        try {
+            if (channel != null) { // Unless writing the rest failed
+                channel.close();
+            }
+        } catch (IOException ignored) {
+            // The art is abandoned anyway
+        }
+        channel = null;
+    }
+
+    /**
+     * Returns the text written at the beginning of the file.
+     *
+     * @return The header of the file.
+     */
+    protected abstract String getHeader();
+
+    /**
+     * Returns the text written at the end of the file.
+     *
+     * @return The footer of the file.
+     */
+    protected abstract String getFooter();
+
+    /**
+     * Encodes a single row of the ASCII art, using {@link #putChars(char[], int, int)} and
+     * {@link #putString(String)}.
+     *
+     * @param row The characters of the row.
+     */
+    protected abstract void putRow(char[] row);
+
+    /**
+     * Encodes the given text into the buffer.
+     *
+     * @param text The text to write.
+     */
+    protected void putString(String text) {
+        // Copied to an array first, since the encoder encodes only an array-backed buffer in bulk
+        if (textChars.length < text.length()) {
+            textChars = new char[text.length()];
+        }
+        text.getChars(0, text.length(), textChars, 0);
+        putChars(textChars, 0, text.length());
+    }
+
+    /**
+     * Encodes a run of characters into the buffer as UTF-8, in a single call to the encoder, writing the
+     * buffer to the file whenever it fills up.
+     *
+     * @param chars The characters, such as a row of the ASCII art.
+     * @param offset The index of the first character of the run.
+     * @param length The number of characters in the run.
+     */
+    protected void putChars(char[] chars, int offset, int length) {
+        encode(CharBuffer.wrap(chars, offset, length));
+    }
+
+    /*
+     * Encodes all the characters of the given buffer, writing the buffer to the file whenever it fills up.
+     * Every call is a whole input of its own, so a surrogate pair must not be split between calls.
+     */
+    private void encode(CharBuffer chars) {
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, buffer, true);
+        while (result.isOverflow() && channel != null) {
+            flush();
+            result = encoder.encode(chars, buffer, true);
+        }
+    }
+
+    /*
+     * Writes the content of the buffer to the file, and clears it.
+     */
+    private void flush() {
+        buffer.flip();
+        try {
+            while (channel != null && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            handleWriteError();
+        }
+        buffer.clear();
+    }
+
+    /*
+     * Informs the user that the output could not be written, and abandons the current ASCII art.
+     */
+    private void handleWriteError() {
+        System.out.println(WRITE_ERROR);
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+            // The file is abandoned anyway
+        }
+        channel = null;
+    }
+}
@@ -39,7 +39,28 @@ enum Command {
     /**
      * The command to change the output method for the ASCII art.
      */
-    ASCIIART("asciiArt");
+    ASCIIART("asciiArt"),
+    /**
+     * The command to change the number of threads the ASCII art is processed with.
+     */
+    THREADS("threads"),
+    /**
+     * The command to convert a (possibly huge) image file to ASCII art strip by strip, without loading it.
+     */
+    STREAM("stream"),
+    /**
+     * The command to convert a directory of numbered frames to an ANSI-animated ASCII art file.
+     */
+    SEQUENCE("sequence"),
+    /**
+     * The command to print the timing, allocation and cache statistics of the pipeline.
+     */
+    STATS("stats"),
+    /**
+     * The command to change the way sub-images are matched to characters: by brightness, dithered, or by
+     * shape.
+     */
+    MATCH("match");
 
     private static final String GENERAL_INCORRECT_COMMAND_MESSAGE = "Did not execute due to incorrect " +
             "command.";
@@ -51,6 +72,14 @@ enum Command {
      * The index of the image path argument in the command array.
      */
     static final int IMAGE_PATH_ARG_IDX = 1;
+    /**
+     * The index of the streamed image path argument in the command array.
+     */
+    static final int STREAM_PATH_ARG_IDX = 1;
+    /**
+     * The index of the frames directory argument in the command array.
+     */
+    static final int SEQUENCE_DIR_ARG_IDX = 1;
     /**
      * The index of the resolution change argument in the command array.
      */
@@ -59,6 +88,14 @@ enum Command {
      * The index of the output type argument in the command array.
      */
     static final int OUTPUT_TYPE_ARG_IDX = 1;
+    /**
+     * The index of the parallelism level argument in the command array.
+     */
+    static final int THREADS_ARG_IDX = 1;
+    /**
+     * The index of the matching mode argument in the command array.
+     */
+    static final int MATCH_MODE_ARG_IDX = 1;
 
 
     private final String commandString;
@@ -0,0 +1,203 @@
+package ascii_art;
+
+import java.util.Arrays;
+
+/**
+ * Writes ASCII art to a compact HTML file, for renders of high resolutions. Instead of markup per character,
+ * the art is the plain text of a single preformatted block, styled once, so the page renders without any
+ * script and the art can be copied out of it as is. Only the characters HTML can't hold in text, '&lt;' and
+ * '&amp;', are escaped, and the file is about as large as the text output.
+ * <p>
+ * Optionally, the rows are run-length encoded, for even smaller files, and a few lines of script expand them
+ * in place when the page is loaded (without scripts, the encoded rows are shown):
+ * <ul>
+ * <li>A run of at least {@value #MIN_RUN_LENGTH} identical characters is written as
+ * {@code ~<char><length>;}, and the marker '~' itself is always written as such a run, so every '~' in a
+ * row starts one.</li>
+ * <li>A run of rows identical to the previous one is written as a single line {@code ~~<count>}, which no
+ * encoded row can be, since a run of '~' ends with ';'.</li>
+ * </ul>
+ * Every row is written to the file as it arrives, so the output streams like the other channel outputs.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class CompactHtmlFileAsciiOutput extends ChannelAsciiOutput {
+    private static final int MIN_RUN_LENGTH = 5; // Shorter runs are not shorter when encoded
+    private static final char RUN_MARKER = '~';
+    private static final char RUN_END = ';';
+    private static final String REPEATED_ROWS_MARKER = "~~";
+    private static final char LINE_SEPARATOR = '\n';
+    private static final int ROW_CAPACITY_MARGIN = 16; // Room for escapes before the builder grows
+    private static final String HEADER_FORMAT = "<!DOCTYPE html>\n<html>\n<head>\n" +
+            "<meta charset=\"UTF-8\">\n<title>ASCII Art</title>\n</head>\n" +
+            "<body style=\"margin:0;padding:0;\">\n" +
+            "<pre id=\"art\" style=\"margin:0;font-family:'%s',monospace;font-size:6px;line-height:1;\">";
+    private static final String FOOTER = "</pre>\n</body>\n</html>\n";
+    // Expands the runs of rows and characters of the preformatted block in place. The block ends with a
+    // line separator, which is not a row of its own
+    private static final String RUN_LENGTH_FOOTER = "</pre>\n<script>\n" +
+            "(function () {\n" +
+            "  var art = document.getElementById('art'), rows = [];\n" +
+            "  var lines = art.textContent.replace(/\\n$/, '').split('\\n');\n" +
+            "  for (var i = 0; i < lines.length; i++) {\n" +
+            "    var repeated = /^~~(\\d+)$/.exec(lines[i]);\n" +
+            "    for (var n = repeated ? +repeated[1] : 0; n > 0; n--) rows.push(rows[rows.length - 1]);\n" +
+            "    if (!repeated) rows.push(lines[i].replace(/~([\\s\\S])(\\d+);/g, function (run, c, n) {\n" +
+            "      return c.repeat(+n);\n" +
+            "    }));\n" +
+            "  }\n" +
+            "  art.textContent = rows.join('\\n') + '\\n';\n" +
+            "})();\n" +
+            "</script>\n</body>\n</html>\n";
+    private static final String ESCAPED_LESS_THAN = "&lt;";
+    private static final String ESCAPED_AMPERSAND = "&amp;";
+    private static final int MAX_ESCAPE_LENGTH = ESCAPED_AMPERSAND.length(); // The longest escape of a char
+
+    private final String header;
+    private final boolean runLengthEncoded;
+    private char[] escapedRow = new char[0]; // The last row, escaped and with its line separator, reused
+    private char[] previousRow; // The last row written, to detect repeated rows when run-length encoding
+    private int repeatedRows; // Rows identical to the previous row that were not written yet
+
+    /**
+     * Constructs an output of plain preformatted text to the given HTML file.
+     *
+     * @param filename The path of the HTML file to write to.
+     * @param fontName The name of the monospace font to display the art in.
+     */
+    public CompactHtmlFileAsciiOutput(String filename, String fontName) {
+        this(filename, fontName, false);
+    }
+
+    /**
+     * Constructs an output to the given HTML file, of plain or run-length encoded preformatted text.
+     *
+     * @param filename The path of the HTML file to write to.
+     * @param fontName The name of the monospace font to display the art in.
+     * @param runLengthEncoded Whether to run-length encode the rows, and add the script that expands them.
+     */
+    public CompactHtmlFileAsciiOutput(String filename, String fontName, boolean runLengthEncoded) {
+        super(filename);
+        this.header = String.format(HEADER_FORMAT, fontName);
+        this.runLengthEncoded = runLengthEncoded;
+    }
+
+    /**
+     * Returns the header, and forgets the rows of the previous ASCII art, since a new one begins.
+     *
+     * @return The header of the file.
+     */
+    @Override
+    protected String getHeader() {
+        previousRow = null;
+        repeatedRows = 0;
+        return header;
+    }
+
+    /**
+     * Returns the rows repeated at the end of the ASCII art, if any, followed by the closing markup, and the
+     * script that expands the rows when they are run-length encoded.
+     *
+     * @return The footer of the file.
+     */
+    @Override
+    protected String getFooter() {
+        if (!runLengthEncoded) {
+            return FOOTER;
+        }
+        return repeatedRows > 0 ? REPEATED_ROWS_MARKER + repeatedRows + LINE_SEPARATOR + RUN_LENGTH_FOOTER :
+               RUN_LENGTH_FOOTER;
+    }
+
+    @Override
+    protected void putRow(char[] row) {
+        if (!runLengthEncoded) {
+            putEscapedRow(row);
+            return;
+        }
+        if (previousRow != null && Arrays.equals(row, previousRow)) {
+            repeatedRows++;
+            return;
+        }
+        if (repeatedRows > 0) {
+            putString(REPEATED_ROWS_MARKER + repeatedRows + LINE_SEPARATOR);
+            repeatedRows = 0;
+        }
+        putString(encodeRow(row));
+        previousRow = row.clone(); // Streamed rows may be reused by their producer
+    }
+
+    /*
+     * Writes a row as plain text, escaped into a reusable array that is encoded at once.
+     */
+    private void putEscapedRow(char[] row) {
+        int maxLength = row.length * MAX_ESCAPE_LENGTH + 1;
+        if (escapedRow.length < maxLength) {
+            escapedRow = new char[maxLength];
+        }
+        int length = 0;
+        for (char c : row) {
+            String escaped = getEscape(c);
+            if (escaped == null) {
+                escapedRow[length++] = c;
+            } else {
+                escaped.getChars(0, escaped.length(), escapedRow, length);
+                length += escaped.length();
+            }
+        }
+        escapedRow[length++] = LINE_SEPARATOR;
+        putChars(escapedRow, 0, length);
+    }
+
+    /*
+     * Encodes a row, with its runs of identical characters and the HTML escapes, as a single line.
+     */
+    private static String encodeRow(char[] row) {
+        StringBuilder encoded = new StringBuilder(row.length + ROW_CAPACITY_MARGIN);
+        int runStart = 0;
+        while (runStart < row.length) {
+            char c = row[runStart];
+            int runEnd = runStart + 1;
+            while (runEnd < row.length && row[runEnd] == c) {
+                runEnd++;
+            }
+            int runLength = runEnd - runStart;
+            if (runLength >= MIN_RUN_LENGTH || c == RUN_MARKER) {
+                encoded.append(RUN_MARKER);
+                appendEscaped(encoded, c);
+                encoded.append(runLength).append(RUN_END);
+            } else {
+                for (int i = 0; i < runLength; i++) {
+                    appendEscaped(encoded, c);
+                }
+            }
+            runStart = runEnd;
+        }
+        return encoded.append(LINE_SEPARATOR).toString();
+    }
+
+    /*
+     * Appends a character, escaped where HTML needs it.
+     */
+    private static void appendEscaped(StringBuilder encoded, char c) {
+        String escaped = getEscape(c);
+        if (escaped == null) {
+            encoded.append(c);
+        } else {
+            encoded.append(escaped);
+        }
+    }
+
+    /*
+     * Returns the escape of a character that HTML can't hold in text, or null if it can be written as is.
+     */
+    private static String getEscape(char c) {
+        switch (c) {
+            case '<':
+                return ESCAPED_LESS_THAN;
+            case '&':
+                return ESCAPED_AMPERSAND;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package ascii_art;
+
+import image.Image;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache of decoded and padded images, bounded by the memory of their pixels, so
+ * switching back to an image file that was used before doesn't decode it again.
+ * <p>
+ * An image is keyed by the canonical path of its file and the file's last modification time, so a file that
+ * was changed since it was cached is decoded again. The images are held by soft references, so under heap
+ * pressure the garbage collector may evict them before the budget is reached. The cache is thread-safe, so
+ * images may be cached by the thread that loads them in the background.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class DecodedImageCache {
+    private final long budgetBytes;
+    // Iterated from the least recently used image to the most recently used one
+    private final LinkedHashMap<Key, CachedImageReference> images = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<CachedImage> clearedImages = new ReferenceQueue<>();
+    private long usedBytes;
+
+    /**
+     * The key of a cached image: the canonical path of its file and the file's last modification time.
+     */
+    public static final class Key {
+        private final String canonicalPath;
+        private final long lastModifiedMillis;
+
+        private Key(String canonicalPath, long lastModifiedMillis) {
+            this.canonicalPath = canonicalPath;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return lastModifiedMillis == key.lastModifiedMillis && canonicalPath.equals(key.canonicalPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * canonicalPath.hashCode() + Long.hashCode(lastModifiedMillis);
+        }
+    }
+
+    /**
+     * A decoded and padded image, with its content hash.
+     */
+    public static final class CachedImage {
+        private final Image paddedImage;
+        private final long imageHash;
+
+        /**
+         * Constructs a CachedImage.
+         *
+         * @param paddedImage The decoded image, padded.
+         * @param imageHash The content hash of the padded image.
+         */
+        public CachedImage(Image paddedImage, long imageHash) {
+            this.paddedImage = paddedImage;
+            this.imageHash = imageHash;
+        }
+
+        /**
+         * Gets the decoded image, padded.
+         *
+         * @return The padded image.
+         */
+        public Image getPaddedImage() {
+            return paddedImage;
+        }
+
+        /**
+         * Gets the content hash of the padded image.
+         *
+         * @return The content hash of the padded image.
+         */
+        public long getImageHash() {
+            return imageHash;
+        }
+    }
+
+    /*
+     * A soft reference to a cached image, which remembers its key and size so it can be removed from the map
+     * after the garbage collector cleared it.
+     */
+    private static final class CachedImageReference extends SoftReference<CachedImage> {
+        private final Key key;
+        private final long bytes;
+
+        private CachedImageReference(Key key, CachedImage image, long bytes,
+                                     ReferenceQueue<CachedImage> queue) {
+            super(image, queue);
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructs an empty DecodedImageCache.
+     *
+     * @param budgetBytes The memory the pixels of the cached images may take, in bytes. Least recently used
+     *                    images are evicted to keep within it, and images larger than it are not cached.
+     */
+    public DecodedImageCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the key of the current version of an image file.
+     *
+     * @param imagePath The path of the image file.
+     * @return The key of the file, by its canonical path and last modification time.
+     * @throws IOException If the file does not exist or its attributes can't be read.
+     */
+    public static Key keyOf(String imagePath) throws IOException {
+        Path realPath = Paths.get(imagePath).toRealPath();
+        return new Key(realPath.toString(), Files.getLastModifiedTime(realPath).toMillis());
+    }
+
+    /**
+     * Returns the cached image of a key, and marks it as the most recently used.
+     *
+     * @param key The key of the image file.
+     * @return The cached image, or null if it is not cached or was evicted.
+     */
+    public synchronized CachedImage get(Key key) {
+        removeClearedImages();
+        CachedImageReference reference = images.get(key);
+        if (reference == null) {
+            return null;
+        }
+        CachedImage image = reference.get();
+        if (image == null) { // Cleared, but not yet enqueued
+            removeImage(reference);
+        }
+        return image;
+    }
+
+    /**
+     * Caches an image, evicting the least recently used images if the budget is exceeded.
+     *
+     * @param key The key of the image file.
+     * @param image The decoded and padded image.
+     * @param bytes The memory the pixels of the image take, in bytes.
+     */
+    public synchronized void put(Key key, CachedImage image, long bytes) {
+        removeClearedImages();
+        if (bytes > budgetBytes) {
+            return;
+        }
+        CachedImageReference replaced = images.put(key, new CachedImageReference(key, image, bytes,
+                                                                                 clearedImages));
+        if (replaced != null) {
+            usedBytes -= replaced.bytes;
+        }
+        usedBytes += bytes;
+
+        Iterator<CachedImageReference> leastRecentlyUsed = images.values().iterator();
+        while (usedBytes > budgetBytes) {
+            usedBytes -= leastRecentlyUsed.next().bytes;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    /*
+     * Removes the images the garbage collector cleared from the map.
+     */
+    private void removeClearedImages() {
+        for (Object cleared = clearedImages.poll(); cleared != null; cleared = clearedImages.poll()) {
+            removeImage((CachedImageReference) cleared);
+        }
+    }
+
+    /*
+     * Removes an image from the map, unless its key was already cached again with another image.
+     */
+    private void removeImage(CachedImageReference reference) {
+        if (images.remove(reference.key, reference)) {
+            usedBytes -= reference.bytes;
+        }
+    }
+}
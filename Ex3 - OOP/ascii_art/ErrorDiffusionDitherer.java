@@ -0,0 +1,211 @@
+package ascii_art;
+
+import image.RowScheduler;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches rows of sub-images to characters with Floyd-Steinberg error diffusion, to avoid the banding of
+ * nearest brightness matching in gradients. The difference between a sub-image's brightness (plus the error
+ * it received) and the brightness of its character is spread to the sub-images after it: 7/16 to the next
+ * one in its row, and 3/16, 5/16 and 1/16 to the three below it. Every row is walked left to right, and the
+ * error is carried through the whole image.
+ * <p>
+ * Streamed rows are dithered one after the other with only two rows of errors, the current row's and the
+ * next row's, so a row is dithered as soon as its brightness is known. A whole grid is dithered in a
+ * wavefront, since a sub-image only waits for the row above it to pass the column after its own: the grid is
+ * split into bands of {@value #BAND_ROWS} rows, and every band into tiles of {@value #TILE_COLUMNS} columns,
+ * skewed a column to the left in every row, so each row of a tile only needs the rows above it in the tile
+ * and in the tiles before it. Tile t of band b is dithered in step t + lag * b, where the lag
+ * keeps a band's first row behind the last row of the band above it, and the tiles of a step, one per band,
+ * are dithered in parallel. The result is the same for any row scheduler, and whether the rows are streamed
+ * or not.
+ * <p>
+ * The ditherer quantizes the brightness into {@value #BRIGHTNESS_BUCKETS} equal buckets, each holding the
+ * character its middle is matched to and that character's brightness, so a sub-image is matched and its
+ * error is calculated with two array accesses. The errors are diffused in fixed point, since each sub-image
+ * waits for the error of the one before it, and integer operations shorten that chain; every share of an
+ * error is rounded to the nearest integer, symmetrically, so negative and positive errors weigh the same.
+ * The buckets are a snapshot of the characters, so the ditherer should not be used after they change.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ErrorDiffusionDitherer {
+    private static final int BAND_ROWS = 32; // The rows of a tile
+    private static final int TILE_COLUMNS = 128; // The columns of each row of a tile
+    private static final int ROW_SKEW = 1; // The columns each row of a tile starts left of the row above
+    // The error weights, in sixteenths
+    private static final int NEXT_ERROR_WEIGHT = 7; // To the next sub-image in the row
+    private static final int BELOW_PREVIOUS_ERROR_WEIGHT = 3;
+    private static final int BELOW_ERROR_WEIGHT = 5;
+    private static final int BELOW_NEXT_ERROR_WEIGHT = 1;
+    private static final int ERROR_WEIGHT_SHIFT = 4; // Divides by 16
+    private static final int ERROR_WEIGHT_HALF = 1 << (ERROR_WEIGHT_SHIFT - 1); // Rounds the division
+    private static final int ERROR_ROWS = 2; // The current row and the next row
+    private static final int ERROR_MARGIN = 1; // An entry on each side of a row of errors, for its borders
+    private static final int BRIGHTNESS_BUCKET_BITS = 12;
+    private static final int BRIGHTNESS_BUCKETS = 1 << BRIGHTNESS_BUCKET_BITS;
+    private static final int FIXED_POINT_BITS = 20; // The brightness 1 in fixed point is 2^20
+    private static final double FIXED_POINT_ONE = 1 << FIXED_POINT_BITS;
+    private static final int BUCKET_SHIFT = FIXED_POINT_BITS - BRIGHTNESS_BUCKET_BITS;
+
+    private final char[] bucketChars; // The character of each brightness bucket
+    // The normalized brightness of the character of each brightness bucket in fixed point, or the middle of
+    // the bucket when all the characters have the same brightness, so there is no error to diffuse
+    private final int[] bucketCharsBrightness;
+
+    /**
+     * Constructs an ErrorDiffusionDitherer with a snapshot of the characters of the given matcher.
+     * This function is assumed to be called when the characters set is not empty.
+     *
+     * @param subImageMatcher The SubImgCharMatcher to use for matching sub-images to characters.
+     */
+    public ErrorDiffusionDitherer(SubImgCharMatcher subImageMatcher) {
+        this.bucketChars = new char[BRIGHTNESS_BUCKETS];
+        this.bucketCharsBrightness = new int[BRIGHTNESS_BUCKETS];
+        double[] charsBrightness = getCharsNormalizedBrightness(subImageMatcher.getBrightnessSnapshot());
+        for (int bucket = 0; bucket < BRIGHTNESS_BUCKETS; bucket++) {
+            double middle = (bucket + 0.5) / BRIGHTNESS_BUCKETS;
+            bucketChars[bucket] = subImageMatcher.getCharByImageBrightness(middle);
+            double charBrightness = charsBrightness != null ? charsBrightness[bucketChars[bucket]] : middle;
+            bucketCharsBrightness[bucket] = (int) Math.round(charBrightness * FIXED_POINT_ONE);
+        }
+    }
+
+    /**
+     * Creates the two rows of errors streamed rows are dithered with, to pass to
+     * {@link #ditherRow(double[], char[], int[][])} for each of the rows in order.
+     *
+     * @param width The number of sub-images in each row.
+     * @return The rows of errors, of the current row and of the next row.
+     */
+    public static int[][] createErrorRows(int width) {
+        return new int[ERROR_ROWS][width + 2 * ERROR_MARGIN];
+    }
+
+    /**
+     * Matches a row of sub-images to characters, diffusing the error of each of them to the sub-images after
+     * it. The rows must be dithered in order, from the first row, with the same rows of errors.
+     *
+     * @param brightness The normalized brightness of the sub-images of the row.
+     * @param asciiRow The row of characters to fill.
+     * @param errorRows The rows of errors, from {@link #createErrorRows(int)}, which are updated.
+     */
+    public void ditherRow(double[] brightness, char[] asciiRow, int[][] errorRows) {
+        int[] errors = errorRows[0];
+        int[] nextErrors = errorRows[1];
+        ditherColumns(brightness, asciiRow, errors, nextErrors, 0, brightness.length, 0);
+        // The next row's errors become the current ones, and the current row's are reused for the row after
+        Arrays.fill(errors, 0);
+        errorRows[0] = nextErrors;
+        errorRows[1] = errors;
+    }
+
+    /**
+     * Matches a whole grid of sub-images to characters, in the wavefront described in
+     * {@link ErrorDiffusionDitherer}, with the same result as dithering its rows in order with
+     * {@link #ditherRow(double[], char[], int[][])}. The tiles of each step are dithered with the given
+     * scheduler, and the steps one after the other.
+     *
+     * @param brightness The normalized brightness of the sub-images.
+     * @param asciiArt The rows of characters to fill, of the same dimensions.
+     * @param rowScheduler The scheduler to dither the tiles of each step with, one band per row.
+     */
+    public void ditherGrid(double[][] brightness, char[][] asciiArt, RowScheduler rowScheduler) {
+        int height = brightness.length;
+        int width = brightness[0].length;
+        // The errors of every row, and of the row below the last, since rows of several tiles are in progress
+        int[][] errors = new int[height + 1][width + 2 * ERROR_MARGIN];
+        int[] carriedErrors = new int[height]; // The error to the next sub-image, at the end of a row's tile
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        int tiles = (width + ROW_SKEW * (BAND_ROWS - 1) + TILE_COLUMNS - 1) / TILE_COLUMNS;
+        // A tile's first row needs the column after it from the last row of the band above, whose tiles are
+        // skewed ROW_SKEW * (BAND_ROWS - 1) columns more, and that tile must be done a step before
+        int bandLag = (ROW_SKEW * (BAND_ROWS - 1) + 1 + TILE_COLUMNS - 1) / TILE_COLUMNS + 1;
+        int steps = tiles + bandLag * (bands - 1);
+        for (int step = 0; step < steps; step++) {
+            int firstBand = Math.max(0, (step - tiles + bandLag) / bandLag);
+            int endBand = Math.min(bands, step / bandLag + 1);
+            int currentStep = step;
+            rowScheduler.forEachRow(endBand - firstBand, bandOffset -> {
+                int band = firstBand + bandOffset;
+                ditherTile(brightness, asciiArt, errors, carriedErrors, band, currentStep - bandLag * band);
+            });
+        }
+    }
+
+    /*
+     * Dithers one tile of a band, the segments of its rows in order, each ROW_SKEW columns left of the one
+     * above.
+     */
+    private void ditherTile(double[][] brightness, char[][] asciiArt, int[][] errors, int[] carriedErrors,
+                            int band, int tile) {
+        int width = brightness[0].length;
+        int bandStart = band * BAND_ROWS;
+        int bandEnd = Math.min(bandStart + BAND_ROWS, brightness.length);
+        for (int row = bandStart; row < bandEnd; row++) {
+            int skew = ROW_SKEW * (row - bandStart);
+            int firstCol = Math.max(0, tile * TILE_COLUMNS - skew);
+            int endCol = Math.min(width, (tile + 1) * TILE_COLUMNS - skew);
+            if (firstCol < endCol) {
+                carriedErrors[row] = ditherColumns(brightness[row], asciiArt[row], errors[row],
+                                                   errors[row + 1], firstCol, endCol, carriedErrors[row]);
+            }
+        }
+    }
+
+    /*
+     * Dithers the sub-images of a row from the first column up to the end column (exclusive), starting with
+     * the error diffused to the first of them by the one before it, and returns the error diffused to the
+     * sub-image after the last.
+     */
+    private int ditherColumns(double[] brightness, char[] asciiRow, int[] errors, int[] nextErrors,
+                              int firstCol, int endCol, int carriedError) {
+        int nextError = carriedError; // Diffused to the next sub-image in the row, kept out of the array
+        for (int col = firstCol; col < endCol; col++) {
+            int entry = col + ERROR_MARGIN;
+            int target = (int) (brightness[col] * FIXED_POINT_ONE) + errors[entry] + nextError;
+            int bucket = Math.max(0, Math.min(target >> BUCKET_SHIFT, BRIGHTNESS_BUCKETS - 1));
+            asciiRow[col] = bucketChars[bucket];
+            int error = target - bucketCharsBrightness[bucket];
+            nextError = weighError(error, NEXT_ERROR_WEIGHT);
+            nextErrors[entry - 1] += weighError(error, BELOW_PREVIOUS_ERROR_WEIGHT);
+            nextErrors[entry] += weighError(error, BELOW_ERROR_WEIGHT);
+            nextErrors[entry + 1] += weighError(error, BELOW_NEXT_ERROR_WEIGHT);
+        }
+        return nextError;
+    }
+
+    /*
+     * Returns the share of an error of the given weight, in sixteenths, rounded to the nearest integer with
+     * halves away from zero. A plain shift would round down, so negative errors would be diffused stronger
+     * than positive ones, and the whole image would drift darker. The sign bit of a negative error takes one
+     * off the rounding half, which makes the rounding symmetric without a branch.
+     */
+    private static int weighError(int error, int weight) {
+        return (error * weight + ERROR_WEIGHT_HALF + (error >> (Integer.SIZE - 1))) >> ERROR_WEIGHT_SHIFT;
+    }
+
+    /*
+     * Maps every character a brightness can be matched to, the first character of each brightness level, to
+     * its brightness normalized by the min and max brightness of the characters, as matching does.
+     */
+    private static double[] getCharsNormalizedBrightness(TreeMap<Double, Character> charsSnapshot) {
+        double minBrightness = charsSnapshot.firstKey();
+        double brightnessRange = charsSnapshot.lastKey() - minBrightness;
+        if (brightnessRange == 0) {
+            return null;
+        }
+        int maxChar = 0;
+        for (char c : charsSnapshot.values()) {
+            maxChar = Math.max(maxChar, c);
+        }
+        double[] charsBrightness = new double[maxChar + 1];
+        for (Map.Entry<Double, Character> level : charsSnapshot.entrySet()) {
+            charsBrightness[level.getValue()] = (level.getKey() - minBrightness) / brightnessRange;
+        }
+        return charsBrightness;
+    }
+}
@@ -0,0 +1,298 @@
+package ascii_art;
+
+import ascii_art.exceptions.ImageLoadingException;
+import ascii_art.exceptions.ResolutionOutOfBoundsException;
+import image.Image;
+import image.ImageProcessor;
+import image.RowScheduler;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Converts a directory of numbered frames to an ANSI-animated ASCII art file, which plays the animation when
+ * printed to a terminal (for example with 'cat').
+ * <p>
+ * The frames are converted in a pipeline of three threads, so while one frame is matched, the next one's
+ * brightness is calculated and the one after it is decoded. Consecutive frames usually differ in few
+ * sub-images, so only the sub-images whose brightness changed since the previous frame are matched again
+ * with {@link AsciiArtAlgorithm#update}, and only the characters that changed are written, each after a
+ * cursor movement to its position. The first frame is written whole.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class FrameSequenceConverter {
+    private static final String OUTPUT_FILE = "out.ans";
+    private static final int QUEUE_CAPACITY = 2; // Frames each stage may get ahead of the next one
+    private static final Image END_OF_FRAMES = new Image(new int[0], 0, 0);
+    private static final double[][] END_OF_BRIGHTNESS = new double[0][];
+
+    // ANSI escape sequences
+    private static final String CLEAR_SCREEN = "\u001b[2J";
+    private static final String CURSOR_HOME = "\u001b[H";
+    private static final String CURSOR_POSITION_FORMAT = "\u001b[%d;%dH"; // 1-based row and column
+
+    // Error messages
+    private static final String FRAMES_READING_ERROR = "Did not execute due to problem with frame files.";
+    private static final String OUTPUT_WRITING_ERROR = "Did not write output due to problem with output " +
+                                                                                                    "file.";
+    private static final String OUT_OF_RESOLUTION_BOUNDARIES = "Did not execute due to exceeding " +
+                                                                   "resolution boundaries.";
+
+    // Messages for user feedback
+    private static final String SUMMARY_FORMAT = "Converted %d frames to %s, matched %d of %d sub-images.%n";
+
+    private final SubImgCharMatcher subImageMatcher; // Used for matching sub-images brightness to characters
+    private final RowScheduler rowScheduler; // Used for matching the rows of each frame, possibly in parallel
+
+    // Set by the pipeline threads when they fail, read after they are done
+    private volatile boolean failedReadingFrames;
+    private volatile boolean exceededResolution;
+
+    /**
+     * Constructs a FrameSequenceConverter with a specific {@link SubImgCharMatcher} and
+     * {@link RowScheduler}.
+     *
+     * @param subImageMatcher The SubImgCharMatcher to use for matching sub-images to characters.
+     * @param rowScheduler The scheduler to match the rows of sub-images with.
+     */
+    public FrameSequenceConverter(SubImgCharMatcher subImageMatcher, RowScheduler rowScheduler) {
+        this.subImageMatcher = subImageMatcher;
+        this.rowScheduler = rowScheduler;
+    }
+
+    /**
+     * Converts the frames in the given directory, ordered by their numbers, to an ANSI-animated file.
+     * All the frames must be of the same dimensions.
+     *
+     * @param framesDirectory The path of the directory of the frames.
+     * @param resolution The number of characters in each row.
+     * @throws ImageLoadingException If an error occurs during frame reading.
+     * @throws ResolutionOutOfBoundsException If the resolution is out of the boundaries of the frames.
+     */
+    public void convert(String framesDirectory, int resolution) throws ImageLoadingException,
+            ResolutionOutOfBoundsException {
+        List<Path> frames;
+        try {
+            frames = listFrames(Paths.get(framesDirectory));
+        } catch (IOException e) {
+            throw new ImageLoadingException(FRAMES_READING_ERROR);
+        }
+        if (frames.isEmpty()) {
+            throw new ImageLoadingException(FRAMES_READING_ERROR);
+        }
+        failedReadingFrames = false;
+        exceededResolution = false;
+
+        BlockingQueue<Image> decodedFrames = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<double[][]> framesBrightness = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Thread decoder = new Thread(() -> decodeFrames(frames, decodedFrames));
+        Thread brightnessCalculator = new Thread(
+                () -> calculateFramesBrightness(decodedFrames, framesBrightness, resolution));
+        decoder.start();
+        brightnessCalculator.start();
+        try {
+            matchFrames(framesBrightness);
+        } catch (IOException e) {
+            System.out.println(OUTPUT_WRITING_ERROR);
+        } finally {
+            decoder.interrupt();
+            brightnessCalculator.interrupt();
+        }
+
+        if (exceededResolution) {
+            throw new ResolutionOutOfBoundsException(OUT_OF_RESOLUTION_BOUNDARIES);
+        }
+        if (failedReadingFrames) {
+            throw new ImageLoadingException(FRAMES_READING_ERROR);
+        }
+    }
+
+    /*
+     * Lists the frame files of a directory in the order of their numbers. Frames are assumed to be named
+     * with the same prefix, so shorter names have smaller numbers even without leading zeros.
+     */
+    private static List<Path> listFrames(Path framesDirectory) throws IOException {
+        List<Path> frames = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(framesDirectory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    frames.add(file);
+                }
+            }
+        }
+        frames.sort(Comparator.comparingInt((Path frame) -> frame.getFileName().toString().length())
+                              .thenComparing(frame -> frame.getFileName().toString()));
+        return frames;
+    }
+
+    /*
+     * First stage of the pipeline: decodes and pads the frames, in order. The end marker is queued however
+     * the stage ends, unless the conversion was stopped, so the next stage never waits for it forever.
+     */
+    private void decodeFrames(List<Path> frames, BlockingQueue<Image> decodedFrames) {
+        boolean stopped = false;
+        try {
+            for (Path frame : frames) {
+                decodedFrames.put(ImageProcessor.padImage(new Image(frame.toString())));
+            }
+        } catch (InterruptedException e) {
+            stopped = true; // The conversion was stopped
+        } catch (IOException | RuntimeException | Error e) { // A corrupt frame may fail ImageIO in any way
+            failedReadingFrames = true;
+        } finally {
+            if (!stopped) {
+                putEndMarker(decodedFrames, END_OF_FRAMES);
+            }
+        }
+    }
+
+    /*
+     * Second stage of the pipeline: calculates the sub-images brightness of the decoded frames, in order.
+     * Like the first stage, it queues the end marker however it ends, unless the conversion was stopped.
+     */
+    private void calculateFramesBrightness(BlockingQueue<Image> decodedFrames,
+                                           BlockingQueue<double[][]> framesBrightness, int resolution) {
+        boolean stopped = false;
+        try {
+            int width = -1;
+            int height = -1;
+            for (Image frame = decodedFrames.take(); frame != END_OF_FRAMES; frame = decodedFrames.take()) {
+                if (width == -1) {
+                    width = frame.getWidth();
+                    height = frame.getHeight();
+                    if (resolution > width || width / resolution > height) {
+                        exceededResolution = true;
+                        break;
+                    }
+                } else if (frame.getWidth() != width || frame.getHeight() != height) {
+                    failedReadingFrames = true;
+                    break;
+                }
+                framesBrightness.put(
+                        ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(frame, resolution));
+            }
+        } catch (InterruptedException e) {
+            stopped = true; // The conversion was stopped
+        } catch (RuntimeException | Error e) {
+            failedReadingFrames = true;
+        } finally {
+            if (!stopped) {
+                putEndMarker(framesBrightness, END_OF_BRIGHTNESS);
+            }
+        }
+    }
+
+    /*
+     * Last stage of the pipeline: matches the frames and writes them to the output file, the first one
+     * whole and each of the others as the changes from the previous one.
+     */
+    private void matchFrames(BlockingQueue<double[][]> framesBrightness) throws IOException {
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(subImageMatcher, rowScheduler);
+        double[][] previousBrightness = null;
+        char[][] asciiArt = null;
+        int frameCount = 0;
+        long matchedSubImages = 0;
+        long totalSubImages = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(OUTPUT_FILE),
+                                                             StandardCharsets.UTF_8)) {
+            for (double[][] brightness = framesBrightness.take(); brightness != END_OF_BRIGHTNESS;
+                 brightness = framesBrightness.take()) {
+                int subImages = brightness.length * brightness[0].length;
+                if (asciiArt == null) {
+                    asciiArt = asciiArtAlgorithm.run(brightness);
+                    writeFullFrame(writer, asciiArt);
+                    matchedSubImages += subImages;
+                } else {
+                    matchedSubImages += countChangedSubImages(previousBrightness, brightness);
+                    writeChangedChars(writer, asciiArt,
+                                      asciiArtAlgorithm.update(previousBrightness, brightness, asciiArt));
+                }
+                totalSubImages += subImages;
+                previousBrightness = brightness;
+                frameCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (frameCount > 0) {
+            System.out.printf(SUMMARY_FORMAT, frameCount, OUTPUT_FILE, matchedSubImages, totalSubImages);
+        }
+    }
+
+    /*
+     * Counts the sub-images whose brightness changed between two frames.
+     */
+    private static int countChangedSubImages(double[][] previousBrightness, double[][] brightness) {
+        int count = 0;
+        for (int row = 0; row < brightness.length; row++) {
+            for (int col = 0; col < brightness[row].length; col++) {
+                if (brightness[row][col] != previousBrightness[row][col]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Writes a whole frame after clearing the screen.
+     */
+    private static void writeFullFrame(BufferedWriter writer, char[][] asciiArt) throws IOException {
+        writer.write(CLEAR_SCREEN);
+        writer.write(CURSOR_HOME);
+        for (char[] row : asciiArt) {
+            writer.write(row);
+            writer.newLine();
+        }
+    }
+
+    /*
+     * Writes the characters that changed since the previous frame. A run of changed characters in a row is
+     * written after a single cursor movement to its start.
+     */
+    private static void writeChangedChars(BufferedWriter writer, char[][] asciiArt, boolean[][] changedChars)
+            throws IOException {
+        for (int row = 0; row < asciiArt.length; row++) {
+            int col = 0;
+            while (col < asciiArt[row].length) {
+                if (!changedChars[row][col]) {
+                    col++;
+                    continue;
+                }
+                int runStart = col;
+                while (col < asciiArt[row].length && changedChars[row][col]) {
+                    col++;
+                }
+                writer.write(String.format(CURSOR_POSITION_FORMAT, row + 1, runStart + 1));
+                writer.write(asciiArt[row], runStart, col - runStart);
+            }
+        }
+        // Leave the cursor below the art, so the last frame is not overwritten by the terminal prompt
+        writer.write(String.format(CURSOR_POSITION_FORMAT, asciiArt.length + 1, 1));
+    }
+
+    /*
+     * Puts the marker of the end of a stage's output, which lets the next stage finish.
+     */
+    private static <T> void putEndMarker(BlockingQueue<T> queue, T endMarker) {
+        try {
+            queue.put(endMarker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
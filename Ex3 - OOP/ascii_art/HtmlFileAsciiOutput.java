@@ -0,0 +1,97 @@
+package ascii_art;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes ASCII art to an HTML file, in the same layout as the console's monospace output, through a
+ * {@link java.nio.channels.FileChannel}. The characters are escaped where HTML needs it, into a reusable
+ * array that is encoded at once, and every row ends with a line break.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class HtmlFileAsciiOutput extends ChannelAsciiOutput {
+    private static final String HEADER_FORMAT = "<!DOCTYPE html>\n<html>\n<head>\n" +
+            "<meta charset=\"UTF-8\">\n<title>ASCII Art</title>\n</head>\n" +
+            "<body style=\"margin:0;padding:0;\">\n" +
+            "<div style=\"font-family:'%s',monospace;font-size:6px;line-height:1;white-space:nowrap;\">\n";
+    private static final String FOOTER = "</div>\n</body>\n</html>\n";
+    private static final String LINE_BREAK = "<br>\n";
+    private static final String ESCAPED_SPACE = "&nbsp;";
+    private static final String ESCAPED_LESS_THAN = "&lt;";
+    private static final String ESCAPED_GREATER_THAN = "&gt;";
+    private static final String ESCAPED_AMPERSAND = "&amp;";
+    private static final int MAX_ESCAPE_LENGTH = ESCAPED_SPACE.length(); // The longest escape of a char
+
+    private final String header;
+    private char[] escapedRow = new char[0]; // The last row, escaped and with its line break, reused
+
+    /**
+     * Constructs an output to the given HTML file.
+     *
+     * @param filename The path of the HTML file to write to.
+     * @param fontName The name of the monospace font to display the art in.
+     */
+    public HtmlFileAsciiOutput(String filename, String fontName) {
+        super(filename);
+        this.header = String.format(HEADER_FORMAT, fontName);
+    }
+
+    /**
+     * Constructs an output to an open channel, such as the body of an HTTP response, which is closed when a
+     * single ASCII art was written to it.
+     *
+     * @param channel The channel to write the HTML to.
+     * @param fontName The name of the monospace font to display the art in.
+     */
+    public HtmlFileAsciiOutput(WritableByteChannel channel, String fontName) {
+        super(channel);
+        this.header = String.format(HEADER_FORMAT, fontName);
+    }
+
+    @Override
+    protected String getHeader() {
+        return header;
+    }
+
+    @Override
+    protected String getFooter() {
+        return FOOTER;
+    }
+
+    @Override
+    protected void putRow(char[] row) {
+        int maxLength = row.length * MAX_ESCAPE_LENGTH + LINE_BREAK.length();
+        if (escapedRow.length < maxLength) {
+            escapedRow = new char[maxLength];
+        }
+        int length = 0;
+        for (char c : row) {
+            String escaped = getEscape(c);
+            if (escaped == null) {
+                escapedRow[length++] = c;
+            } else {
+                escaped.getChars(0, escaped.length(), escapedRow, length);
+                length += escaped.length();
+            }
+        }
+        LINE_BREAK.getChars(0, LINE_BREAK.length(), escapedRow, length);
+        putChars(escapedRow, 0, length + LINE_BREAK.length());
+    }
+
+    /*
+     * Returns the escape of a character that HTML needs escaped, or null if it can be written as is.
+     */
+    private static String getEscape(char c) {
+        switch (c) {
+            case ' ':
+                return ESCAPED_SPACE;
+            case '<':
+                return ESCAPED_LESS_THAN;
+            case '>':
+                return ESCAPED_GREATER_THAN;
+            case '&':
+                return ESCAPED_AMPERSAND;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ascii_art;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of requests and reports their percentiles. The latest latencies are kept in a
+ * fixed-size ring, so the percentiles describe the recent requests and recording takes constant memory.
+ * Latencies may be recorded by several threads at once.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class LatencyRecorder {
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String PERCENTILE_FORMAT = "p%s %.3f ms%n";
+    private static final String COUNT_FORMAT = "requests %d (percentiles of the last %d)%n";
+    private static final String MAX_FORMAT = "max %.3f ms%n";
+
+    private final long[] latencies; // Ring of the latest latencies, in nanoseconds
+    private long recordedCount;
+
+    /**
+     * Constructs a LatencyRecorder.
+     *
+     * @param capacity The number of latest latencies the percentiles are calculated over.
+     */
+    public LatencyRecorder(int capacity) {
+        this.latencies = new long[capacity];
+    }
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        latencies[(int) (recordedCount % latencies.length)] = nanos;
+        recordedCount++;
+    }
+
+    /**
+     * Formats the number of requests recorded so far, and the percentiles and the maximum of the latest
+     * latencies, one per line.
+     *
+     * @return The formatted percentiles, or only the count if nothing was recorded.
+     */
+    public String formatPercentiles() {
+        long[] latest;
+        long count;
+        synchronized (this) {
+            count = recordedCount;
+            latest = Arrays.copyOf(latencies, (int) Math.min(count, latencies.length));
+        }
+        StringBuilder formatted = new StringBuilder(String.format(COUNT_FORMAT, count, latest.length));
+        if (latest.length == 0) {
+            return formatted.toString();
+        }
+        Arrays.sort(latest);
+        for (double percentile : PERCENTILES) {
+            // The nearest rank: the smallest latency that at least this percent of the requests are within
+            int rank = (int) Math.ceil(percentile / 100 * latest.length);
+            formatted.append(String.format(PERCENTILE_FORMAT, formatPercentile(percentile),
+                                           latest[Math.max(rank, 1) - 1] / NANOS_PER_MILLI));
+        }
+        formatted.append(String.format(MAX_FORMAT, latest[latest.length - 1] / NANOS_PER_MILLI));
+        return formatted.toString();
+    }
+
+    /*
+     * Formats a percentile without a fraction if it is whole, such as "99" and "99.9".
+     */
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) :
+                String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,141 @@
+package ascii_art;
+
+import ascii_art.exceptions.InvalidCommandException;
+import image.RowScheduler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntConsumer;
+
+/**
+ * Manages the parallelism level in which the tile grid of the ASCII art is processed.
+ * Rows are split into bands that run on a {@link ForkJoinPool}, and since every row is processed
+ * independently, the result is identical to the sequential processing for any parallelism level.
+ * A parallelism level of 1 processes the rows sequentially in the calling thread.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ParallelismManager implements RowScheduler {
+    private static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int SEQUENTIAL_PARALLELISM = 1;
+    private static final int MAX_PARALLELISM = 256;
+    private static final int BANDS_PER_THREAD = 4; // Extra bands to balance uneven rows between threads
+
+    // Error messages
+    private static final String PARALLELISM_FORMAT_ERROR = "Did not change parallelism due to incorrect " +
+                                                                                                "format.";
+
+    // Messages for user feedback
+    private static final String PARALLELISM_MESSAGE = "Parallelism set to %d.";
+
+    // Volatile, since images are loaded on a background thread while 'threads' may replace the pool
+    private volatile ForkJoinPool pool; // null when processing sequentially
+    private volatile int parallelism;
+
+    /**
+     * Constructs a ParallelismManager that uses all the available processors.
+     */
+    public ParallelismManager() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructs a ParallelismManager with a specific parallelism level.
+     *
+     * @param parallelism The number of threads to process rows with, 1 for sequential processing.
+     */
+    public ParallelismManager(int parallelism) {
+        setParallelism(parallelism);
+    }
+
+    /**
+     * Changes the parallelism level based on the user's choice.
+     *
+     * @param commandArray The command string split into an array of words, which should include the
+     *                     parallelism level argument.
+     * @throws InvalidCommandException If the parallelism level is not provided, is not a number, or is
+     * out of range.
+     */
+    public void setParallelism(String[] commandArray) throws InvalidCommandException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(PARALLELISM_FORMAT_ERROR);
+        }
+        int requestedParallelism;
+        try {
+            requestedParallelism = Integer.parseInt(commandArray[Command.THREADS_ARG_IDX]);
+        } catch (NumberFormatException e) {
+            throw new InvalidCommandException(PARALLELISM_FORMAT_ERROR);
+        }
+        if (requestedParallelism < SEQUENTIAL_PARALLELISM || requestedParallelism > MAX_PARALLELISM) {
+            throw new InvalidCommandException(PARALLELISM_FORMAT_ERROR);
+        }
+
+        setParallelism(requestedParallelism);
+        System.out.printf(PARALLELISM_MESSAGE, parallelism);
+        System.out.println();
+    }
+
+    /**
+     * Runs the given action once for every row, in bands of consecutive rows that run in parallel.
+     * If the pool is replaced before the bands are submitted to it, the rows are processed sequentially.
+     *
+     * @param rows The number of rows.
+     * @param rowAction The action to run on each row, gets the row index.
+     */
+    @Override
+    public void forEachRow(int rows, IntConsumer rowAction) {
+        ForkJoinPool currentPool = pool;
+        if (currentPool == null || rows <= 1) {
+            RowScheduler.SEQUENTIAL.forEachRow(rows, rowAction);
+            return;
+        }
+        int bandSize = Math.max(1, rows / (parallelism * BANDS_PER_THREAD));
+        try {
+            currentPool.invoke(new RowBandTask(0, rows, bandSize, rowAction));
+        } catch (RejectedExecutionException e) { // The pool was shut down by 'threads' meanwhile
+            RowScheduler.SEQUENTIAL.forEachRow(rows, rowAction);
+        }
+    }
+
+    /*
+     * Replaces the pool with one of the given parallelism level.
+     */
+    private void setParallelism(int parallelism) {
+        if (pool != null) {
+            pool.shutdown(); // Lets running bands finish, its threads are not needed anymore
+        }
+        this.parallelism = parallelism;
+        this.pool = parallelism == SEQUENTIAL_PARALLELISM ? null : new ForkJoinPool(parallelism);
+    }
+
+    /*
+     * Processes a band of rows, splitting it in halves until it is small enough to run directly.
+     */
+    private static class RowBandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int startRow;
+        private final int endRow; // exclusive
+        private final int bandSize;
+        private final transient IntConsumer rowAction; // Tasks are never serialized
+
+        RowBandTask(int startRow, int endRow, int bandSize, IntConsumer rowAction) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.bandSize = bandSize;
+            this.rowAction = rowAction;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= bandSize) {
+                for (int row = startRow; row < endRow; row++) {
+                    rowAction.accept(row);
+                }
+                return;
+            }
+            int middleRow = (startRow + endRow) >>> 1;
+            invokeAll(new RowBandTask(startRow, middleRow, bandSize, rowAction),
+                      new RowBandTask(middleRow, endRow, bandSize, rowAction));
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ascii_art;
+
+import image_char_matching.GlyphBrightnessCache;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Collects statistics of the stages of the ASCII art pipeline, for the 'stats' command: the wall time and
+ * the bytes allocated by each stage in its last run, running histograms of the stages' wall times, and the
+ * hit and miss counters of the caches along the pipeline.
+ * <p>
+ * The allocated bytes are those of the thread that runs the stage (through {@link
+ * com.sun.management.ThreadMXBean}), so the allocations of other stages and requests running meanwhile are
+ * not counted, and neither are those of the parallelism pool's workers. The methods are synchronized, since
+ * the stages of loading an image run on the background thread that loads it; each stage is assumed to be
+ * started and ended by the same thread, one run at a time.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class PipelineStats {
+    private static final int HISTOGRAM_BUCKETS = 16; // Bucket i counts times in [2^(i-1), 2^i) ms
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MEGABYTE = 1 << 20;
+
+    // Messages for user feedback
+    private static final String STAGES_HEADER_FORMAT = "%-11s %10s %14s %6s %12s  %s%n";
+    private static final String STAGE_FORMAT = "%-11s %10.3f %14.3f %6d %12.3f  %s%n";
+    private static final String NEVER_RAN_FORMAT = "%-11s %10s %14s %6d %12s%n";
+    private static final String HISTOGRAM_BUCKET_FORMAT = "<%dms:%d ";
+    private static final String HIT_MISS_FORMAT = "%-28s %d hits, %d misses%n";
+    private static final String COUNT_FORMAT = "%-28s %d%n";
+    private static final String ALLOCATION_NOT_AVAILABLE = "(allocation is not measured on this platform)";
+    private static final String NOT_AVAILABLE = "-";
+
+    /**
+     * The stages of the pipeline.
+     */
+    public enum Stage {
+        /**
+         * Decoding an image file.
+         */
+        DECODE("decode"),
+        /**
+         * Padding an image to powers of two.
+         */
+        PADDING("padding"),
+        /**
+         * Calculating the brightness of the sub-images (building the brightness pyramid).
+         */
+        BRIGHTNESS("brightness"),
+        /**
+         * Matching the sub-images to characters.
+         */
+        MATCHING("matching"),
+        /**
+         * Writing the ASCII art to the output.
+         */
+        OUTPUT("output");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The counters of the caches along the pipeline.
+     */
+    public enum Counter {
+        /**
+         * Images that were found in the decoded image cache.
+         */
+        DECODED_IMAGE_CACHE_HITS,
+        /**
+         * Images that were not found in the decoded image cache, and were decoded.
+         */
+        DECODED_IMAGE_CACHE_MISSES,
+        /**
+         * Brightness grids served from the brightness pyramid of the current image.
+         */
+        PYRAMID_HITS,
+        /**
+         * Brightness pyramids built, one per loaded image.
+         */
+        PYRAMID_BUILDS,
+        /**
+         * Renders that were found in the rendered art cache.
+         */
+        RENDER_CACHE_HITS,
+        /**
+         * Renders with an ASCII character set that were not found in the rendered art cache.
+         */
+        RENDER_CACHE_MISSES,
+        /**
+         * Renders that reused the last ASCII art as is.
+         */
+        ART_REUSED,
+        /**
+         * Renders that re-matched only the sub-images a charset edit affected.
+         */
+        ART_INCREMENTAL,
+        /**
+         * Renders that matched every sub-image.
+         */
+        ART_FULL,
+        /**
+         * Sub-images matched to characters.
+         */
+        SUB_IMAGES_MATCHED,
+        /**
+         * Matches answered by the matcher's lookup table.
+         */
+        LOOKUP_TABLE_HITS,
+        /**
+         * Matches the lookup table couldn't answer, that were searched in the matcher's tree map.
+         */
+        LOOKUP_TABLE_MISSES,
+        /**
+         * Lookup tables built by the matcher, one per change of the characters that was matched with.
+         */
+        LOOKUP_TABLE_BUILDS
+    }
+
+    private final com.sun.management.ThreadMXBean threadBean; // null if allocation can't be measured
+    private final Map<Stage, Long> stageStartNanos = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> stageStartBytes = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> lastNanos = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> lastBytes = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> totalNanos = new EnumMap<>(Stage.class);
+    private final Map<Stage, Long> runs = new EnumMap<>(Stage.class);
+    private final Map<Stage, int[]> histograms = new EnumMap<>(Stage.class);
+    private final Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+
+    /**
+     * Constructs a PipelineStats with no recorded runs.
+     */
+    public PipelineStats() {
+        this.threadBean = getAllocationMeasuringThreadBean();
+        for (Stage stage : Stage.values()) {
+            totalNanos.put(stage, 0L);
+            runs.put(stage, 0L);
+            histograms.put(stage, new int[HISTOGRAM_BUCKETS]);
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, 0L);
+        }
+    }
+
+    /**
+     * Marks the start of a run of a stage, on the thread that runs it.
+     *
+     * @param stage The stage that starts.
+     */
+    public synchronized void startStage(Stage stage) {
+        stageStartBytes.put(stage, getAllocatedBytes());
+        stageStartNanos.put(stage, System.nanoTime());
+    }
+
+    /**
+     * Marks the end of the current run of a stage, and records its wall time and allocated bytes.
+     *
+     * @param stage The stage that ends, which was started with {@link #startStage(Stage)} on this thread.
+     */
+    public synchronized void endStage(Stage stage) {
+        long nanos = System.nanoTime() - stageStartNanos.get(stage);
+        long bytes = getAllocatedBytes() - stageStartBytes.get(stage);
+        lastNanos.put(stage, nanos);
+        lastBytes.put(stage, bytes);
+        totalNanos.merge(stage, nanos, Long::sum);
+        runs.merge(stage, 1L, Long::sum);
+        histograms.get(stage)[getHistogramBucket(nanos)]++;
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter The counter to add to.
+     * @param amount The amount to add.
+     */
+    public synchronized void count(Counter counter, long amount) {
+        counters.merge(counter, amount, Long::sum);
+    }
+
+    /**
+     * Returns the current value of a counter.
+     *
+     * @param counter The counter.
+     * @return The sum of the amounts added to the counter.
+     */
+    public synchronized long getCount(Counter counter) {
+        return counters.get(counter);
+    }
+
+    /**
+     * Prints the wall time and the allocated bytes of the last run of each stage, the number of runs and the
+     * total time of each stage with a histogram of its times, and the counters of the caches.
+     */
+    public synchronized void printStats() {
+        System.out.printf(STAGES_HEADER_FORMAT, "stage", "last ms", "last alloc MB", "runs", "total ms",
+                          "histogram");
+        for (Stage stage : Stage.values()) {
+            if (runs.get(stage) == 0) {
+                System.out.printf(NEVER_RAN_FORMAT, stage.name, NOT_AVAILABLE, NOT_AVAILABLE, 0,
+                                  NOT_AVAILABLE);
+                continue;
+            }
+            System.out.printf(STAGE_FORMAT, stage.name, lastNanos.get(stage) / NANOS_PER_MILLI,
+                              lastBytes.get(stage) / BYTES_PER_MEGABYTE, runs.get(stage),
+                              totalNanos.get(stage) / NANOS_PER_MILLI,
+                              formatHistogram(histograms.get(stage)));
+        }
+        if (threadBean == null) {
+            System.out.println(ALLOCATION_NOT_AVAILABLE);
+        }
+
+        System.out.printf(HIT_MISS_FORMAT, "decoded image cache:",
+                          counters.get(Counter.DECODED_IMAGE_CACHE_HITS),
+                          counters.get(Counter.DECODED_IMAGE_CACHE_MISSES));
+        System.out.printf(HIT_MISS_FORMAT, "brightness pyramid:", counters.get(Counter.PYRAMID_HITS),
+                          counters.get(Counter.PYRAMID_BUILDS));
+        System.out.printf(HIT_MISS_FORMAT, "rendered art cache:", counters.get(Counter.RENDER_CACHE_HITS),
+                          counters.get(Counter.RENDER_CACHE_MISSES));
+        System.out.printf(HIT_MISS_FORMAT, "last ASCII art (full reuse):", counters.get(Counter.ART_REUSED),
+                          counters.get(Counter.ART_FULL));
+        System.out.printf(COUNT_FORMAT, "incremental renders:", counters.get(Counter.ART_INCREMENTAL));
+        System.out.printf(COUNT_FORMAT, "sub-images matched:", counters.get(Counter.SUB_IMAGES_MATCHED));
+        System.out.printf(HIT_MISS_FORMAT, "matcher lookup table:", counters.get(Counter.LOOKUP_TABLE_HITS),
+                          counters.get(Counter.LOOKUP_TABLE_MISSES));
+        System.out.printf(COUNT_FORMAT, "lookup table builds:", counters.get(Counter.LOOKUP_TABLE_BUILDS));
+        GlyphBrightnessCache glyphCache = GlyphBrightnessCache.getInstance();
+        System.out.printf(HIT_MISS_FORMAT, "glyph brightness cache:", glyphCache.getHitCount(),
+                          glyphCache.getMissCount());
+    }
+
+    /*
+     * Formats the non-empty buckets of a histogram, each with its upper bound.
+     */
+    private static String formatHistogram(int[] histogram) {
+        StringBuilder formatted = new StringBuilder();
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+            if (histogram[bucket] > 0) {
+                formatted.append(String.format(HISTOGRAM_BUCKET_FORMAT, 1L << bucket, histogram[bucket]));
+            }
+        }
+        return formatted.toString().trim();
+    }
+
+    /*
+     * Returns the histogram bucket of a wall time: 0 for less than a millisecond, and i for [2^(i-1), 2^i)
+     * milliseconds, with the last bucket holding all the longer times.
+     */
+    private static int getHistogramBucket(long nanos) {
+        long millis = (long) (nanos / NANOS_PER_MILLI);
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /*
+     * Returns the number of bytes allocated so far by the current thread, or 0 if it can't be measured.
+     */
+    private long getAllocatedBytes() {
+        return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /*
+     * Returns the thread bean of the platform if it can measure the bytes allocated by threads, or null.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationMeasuringThreadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+}
@@ -0,0 +1,157 @@
+package ascii_art;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache of rendered ASCII art, bounded by the memory its entries take.
+ * An entry is keyed by the content of the image it was rendered from, the resolution, the ASCII character
+ * set it was matched with and the matching mode, so going back to an earlier combination of them outputs its
+ * art without running the algorithm again. Character sets with non-ASCII characters are not cached.
+ * <p>
+ * The cache holds copies of the art it is given and returns copies of it, so its entries can't be modified.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class RenderedArtCache {
+    private static final int BYTES_PER_CHAR = Character.BYTES;
+    private static final long ENTRY_OVERHEAD_BYTES = 128; // The key, the map entry and the row array headers
+    private static final long ROW_OVERHEAD_BYTES = 16; // The header of each row array
+
+    private final long budgetBytes;
+    // Iterated from the least recently used entry to the most recently used one
+    private final LinkedHashMap<Key, char[][]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    /**
+     * Constructs an empty RenderedArtCache.
+     *
+     * @param budgetBytes The estimated memory the cached art may take, in bytes. Least recently used entries
+     *                    are evicted to keep within it, and art larger than it is not cached.
+     */
+    public RenderedArtCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns a copy of the art rendered from an image in a resolution with a character set, if cached, and
+     * marks it as the most recently used.
+     *
+     * @param imageHash The hash of the content of the image.
+     * @param resolution The number of characters in each row.
+     * @param charsetBits The 128-bit set of the ASCII characters, as two longs (see
+     *                    {@link AsciiCharacterSetManager#getAsciiCharsetBits()}), or null if the character
+     *                    set is not ASCII.
+     * @param matchMode The way the sub-images were matched to characters.
+     * @return A copy of the cached art, or null if it is not cached.
+     */
+    public char[][] get(long imageHash, int resolution, long[] charsetBits,
+                        AsciiArtAlgorithm.MatchMode matchMode) {
+        if (charsetBits == null) {
+            return null;
+        }
+        char[][] asciiArt = entries.get(new Key(imageHash, resolution, charsetBits, matchMode));
+        return asciiArt == null ? null : copyOf(asciiArt);
+    }
+
+    /**
+     * Caches a copy of the art rendered from an image in a resolution with a character set, evicting the
+     * least recently used entries if the budget is exceeded.
+     *
+     * @param imageHash The hash of the content of the image.
+     * @param resolution The number of characters in each row.
+     * @param charsetBits The 128-bit set of the ASCII characters, as two longs, or null if the character set
+     *                    is not ASCII, in which case nothing is cached.
+     * @param matchMode The way the sub-images were matched to characters.
+     * @param asciiArt The rendered art.
+     */
+    public void put(long imageHash, int resolution, long[] charsetBits, AsciiArtAlgorithm.MatchMode matchMode,
+                    char[][] asciiArt) {
+        long entryBytes = estimateBytes(asciiArt);
+        if (charsetBits == null || entryBytes > budgetBytes) {
+            return;
+        }
+        char[][] replaced = entries.put(new Key(imageHash, resolution, charsetBits, matchMode),
+                                        copyOf(asciiArt));
+        if (replaced != null) {
+            usedBytes -= estimateBytes(replaced);
+        }
+        usedBytes += entryBytes;
+
+        Iterator<char[][]> leastRecentlyUsed = entries.values().iterator();
+        while (usedBytes > budgetBytes) {
+            usedBytes -= estimateBytes(leastRecentlyUsed.next());
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    /**
+     * Gets the number of cached entries.
+     *
+     * @return the number of cached entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+     * Estimates the memory an entry of the given art takes.
+     */
+    private static long estimateBytes(char[][] asciiArt) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        for (char[] row : asciiArt) {
+            bytes += ROW_OVERHEAD_BYTES + (long) row.length * BYTES_PER_CHAR;
+        }
+        return bytes;
+    }
+
+    /*
+     * Copies every row of the art.
+     */
+    private static char[][] copyOf(char[][] asciiArt) {
+        char[][] copy = new char[asciiArt.length][];
+        for (int row = 0; row < asciiArt.length; row++) {
+            copy[row] = asciiArt[row].clone();
+        }
+        return copy;
+    }
+
+    /*
+     * The key of a cached entry.
+     */
+    private static final class Key {
+        private final long imageHash;
+        private final int resolution;
+        private final long lowCharsetBits; // Characters 0-63
+        private final long highCharsetBits; // Characters 64-127
+        private final AsciiArtAlgorithm.MatchMode matchMode;
+
+        private Key(long imageHash, int resolution, long[] charsetBits,
+                    AsciiArtAlgorithm.MatchMode matchMode) {
+            this.imageHash = imageHash;
+            this.resolution = resolution;
+            this.lowCharsetBits = charsetBits[0];
+            this.highCharsetBits = charsetBits[1];
+            this.matchMode = matchMode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return imageHash == key.imageHash && resolution == key.resolution &&
+                   lowCharsetBits == key.lowCharsetBits && highCharsetBits == key.highCharsetBits &&
+                   matchMode == key.matchMode;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Long.hashCode(imageHash);
+            hash = 31 * hash + resolution;
+            hash = 31 * hash + Long.hashCode(lowCharsetBits);
+            hash = 31 * hash + Long.hashCode(highCharsetBits);
+            return 31 * hash + matchMode.ordinal();
+        }
+    }
+}
@@ -15,10 +15,25 @@ public class Shell {
     private static final String INITIALIZATION_ERROR_MESSAGE_PREFIX = "Failed to initialize the ASCII art " +
             "program due to an error: ";
     private static final String PROMPT = ">>> ";
+    private static final String STREAM_FORMAT_ERROR = "Did not execute due to incorrect format.";
+    private static final String SEQUENCE_FORMAT_ERROR = "Did not execute due to incorrect format.";
+    // Messages for user feedback
+    private static final String STREAM_MATCH_MODE_MESSAGE = "Streaming matches by brightness, since " +
+                                                            "matching by shape needs the whole image.";
+    private static final String SEQUENCE_MATCH_MODE_MESSAGE = "Sequences are matched by brightness only, " +
+                                                              "regardless of the matching mode.";
+    private static final String MAX_RESOLUTION_MATCH_MODE_MESSAGE = "Matching by brightness, since the " +
+            "sub-images are single pixels in this resolution.";
+    private static final long RENDER_CACHE_BUDGET_BYTES = 64L << 20; // 64 MB of rendered ASCII art
     private final AsciiArtOutputManager outputManager;
     private final AsciiCharacterSetManager asciiCharacterSetManager;
     private final AsciiArtImageManager imageManager;
     private final AsciiArtAlgorithm asciiArtAlgorithm;
+    private final ParallelismManager parallelismManager;
+    private final StreamingAsciiArtConverter streamingConverter;
+    private final FrameSequenceConverter frameSequenceConverter;
+    private final PipelineStats stats;
+    private final RenderedArtCache renderedArtCache;
 
     /**
      * Initializes the Shell with default settings.
@@ -27,12 +42,20 @@ public class Shell {
      * @throws ImageLoadingException If an error occurs during image loading.
      */
     public Shell() throws ImageLoadingException {
-        outputManager = new AsciiArtOutputManager();
+        stats = new PipelineStats();
+        renderedArtCache = new RenderedArtCache(RENDER_CACHE_BUDGET_BYTES);
+        outputManager = new AsciiArtOutputManager(stats);
         asciiCharacterSetManager = new AsciiCharacterSetManager();
-        imageManager = new AsciiArtImageManager();
+        parallelismManager = new ParallelismManager();
+        imageManager = new AsciiArtImageManager(parallelismManager, stats);
         // Initialize the algorithm with the default parameters
         this.asciiArtAlgorithm = new AsciiArtAlgorithm(asciiCharacterSetManager.getSubImgCharMatcher(),
-                                                       imageManager);
+                                                       asciiCharacterSetManager.getShapeCharMatcher(),
+                                                       imageManager, parallelismManager, stats);
+        this.streamingConverter = new StreamingAsciiArtConverter(
+                asciiCharacterSetManager.getSubImgCharMatcher());
+        this.frameSequenceConverter = new FrameSequenceConverter(
+                asciiCharacterSetManager.getSubImgCharMatcher(), parallelismManager);
     }
 
 
@@ -87,6 +110,21 @@ public class Shell {
                     case ASCIIART:
                         handleAsciiArtCommand();
                         break;
+                    case THREADS:
+                        handleThreadsCommand(commandWithOptionalArgs);
+                        break;
+                    case STREAM:
+                        handleStreamCommand(commandWithOptionalArgs);
+                        break;
+                    case SEQUENCE:
+                        handleSequenceCommand(commandWithOptionalArgs);
+                        break;
+                    case STATS:
+                        handleStatsCommand();
+                        break;
+                    case MATCH:
+                        handleMatchCommand(commandWithOptionalArgs);
+                        break;
                 }
             } catch (ShellException se) { // In case of any exception, print the error message and continue
                 printError(se.getMessage());
@@ -96,6 +134,7 @@ public class Shell {
 
     /*
      * Handles the 'image' command to set the current image to a new image loaded from the specified path.
+     * Only the header of the file is read before returning, the image is loaded in the background.
      * Assumes the image path is supplied as the second word in the command.
      */
     private void handleImageCommand(String[] commandArray) throws InvalidCommandException,
@@ -156,13 +195,34 @@ public class Shell {
 
     /*
      * Handles the 'asciiart' command to generate and output the ASCII art.
-     * For this command to be executed, the character set must not be empty.
+     * Art that was already rendered from the same image content, in the same resolution, with the same
+     * ASCII character set and matching mode, is taken from the rendered art cache instead of running the
+     * algorithm again.
+     * For this command to be executed, the character set must not be empty, and if the image is still
+     * loading in the background, the command waits for it.
      * @throws EmptyCharacterSetException If the character set is empty.
+     * @throws ImageLoadingException If the image set by the last 'image' command failed to load.
      */
-    private void handleAsciiArtCommand() throws EmptyCharacterSetException {
+    private void handleAsciiArtCommand() throws EmptyCharacterSetException, ImageLoadingException {
         asciiCharacterSetManager.validateCharacterSet(); // Ensure the character set is not empty before
                                                          // generating ASCII art
-        char[][] asciiArt = asciiArtAlgorithm.run();
+        long imageHash = imageManager.getImageHash();
+        int resolution = imageManager.getResolution();
+        long[] charsetBits = asciiCharacterSetManager.getAsciiCharsetBits(); // null if not cacheable
+        AsciiArtAlgorithm.MatchMode matchMode = asciiArtAlgorithm.getMatchMode();
+        if (matchMode == AsciiArtAlgorithm.MatchMode.SHAPE && resolution == imageManager.getMaxResolution()) {
+            System.out.println(MAX_RESOLUTION_MATCH_MODE_MESSAGE);
+        }
+        char[][] asciiArt = renderedArtCache.get(imageHash, resolution, charsetBits, matchMode);
+        if (asciiArt != null) {
+            stats.count(PipelineStats.Counter.RENDER_CACHE_HITS, 1);
+        } else {
+            asciiArt = asciiArtAlgorithm.run();
+            if (charsetBits != null) {
+                stats.count(PipelineStats.Counter.RENDER_CACHE_MISSES, 1);
+                renderedArtCache.put(imageHash, resolution, charsetBits, matchMode, asciiArt);
+            }
+        }
         outputManager.outputAsciiArt(asciiArt);
     }
 
@@ -182,4 +242,71 @@ public class Shell {
     private void handleOutputCommand(String[] commandArray) throws InvalidCommandException {
         outputManager.setOutputMethod(commandArray);
     }
+
+    /*
+     * Handles the 'threads' command to change the number of threads the ASCII art is processed with.
+     *
+     * @param commandArray An array containing the command and its parameters.
+     */
+    private void handleThreadsCommand(String[] commandArray) throws InvalidCommandException {
+        parallelismManager.setParallelism(commandArray);
+    }
+
+    /*
+     * Handles the 'stream' command to convert an image file to ASCII art one strip at a time, in the
+     * current resolution, character set and output method, without replacing the current image. In the
+     * dithered matching mode the rows are dithered as they are converted; the shape matching mode needs the
+     * whole image, so the rows are matched by brightness in it, and the user is told so.
+     * For this command to be executed, the character set must not be empty.
+     */
+    private void handleStreamCommand(String[] commandArray) throws ShellException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(STREAM_FORMAT_ERROR);
+        }
+        asciiCharacterSetManager.validateCharacterSet();
+        AsciiArtAlgorithm.MatchMode matchMode = asciiArtAlgorithm.getMatchMode();
+        if (matchMode == AsciiArtAlgorithm.MatchMode.SHAPE) {
+            System.out.println(STREAM_MATCH_MODE_MESSAGE);
+        }
+        boolean dithered = matchMode == AsciiArtAlgorithm.MatchMode.DITHERED;
+        streamingConverter.convert(commandArray[Command.STREAM_PATH_ARG_IDX], imageManager.getResolution(),
+                                   dithered, outputManager.getStreamingOutput());
+    }
+
+    /*
+     * Handles the 'match' command to change the way sub-images are matched to characters, by brightness,
+     * by brightness with error diffusion, or by shape.
+     *
+     * @param commandArray An array containing the command and its parameters.
+     */
+    private void handleMatchCommand(String[] commandArray) throws InvalidCommandException {
+        asciiArtAlgorithm.setMatchMode(commandArray);
+    }
+
+    /*
+     * Handles the 'stats' command to print the wall time and allocated bytes of each stage of the pipeline
+     * in its last run, their histograms, and the hit and miss counters of the caches.
+     */
+    private void handleStatsCommand() {
+        stats.printStats();
+    }
+
+    /*
+     * Handles the 'sequence' command to convert a directory of numbered frames to an ANSI-animated ASCII art
+     * file, in the current resolution and character set. The frames are always matched by brightness, since
+     * only the changed sub-images of each frame are matched again, and the user is told so in the other
+     * matching modes.
+     * For this command to be executed, the character set must not be empty.
+     */
+    private void handleSequenceCommand(String[] commandArray) throws ShellException {
+        if (commandArray.length < Command.COMMAND_WITH_ARGS_MIN_LENGTH) {
+            throw new InvalidCommandException(SEQUENCE_FORMAT_ERROR);
+        }
+        asciiCharacterSetManager.validateCharacterSet();
+        if (asciiArtAlgorithm.getMatchMode() != AsciiArtAlgorithm.MatchMode.BRIGHTNESS) {
+            System.out.println(SEQUENCE_MATCH_MODE_MESSAGE);
+        }
+        frameSequenceConverter.convert(commandArray[Command.SEQUENCE_DIR_ARG_IDX],
+                                       imageManager.getResolution());
+    }
 }
@@ -0,0 +1,93 @@
+package ascii_art;
+
+import ascii_art.exceptions.ImageLoadingException;
+import ascii_art.exceptions.ResolutionOutOfBoundsException;
+import image.Image;
+import image.ImageProcessor;
+import image.ImageStripReader;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.IOException;
+
+/**
+ * Converts an image file to ASCII art one row of characters at a time, for images too large to be held in
+ * memory. For each row of sub-images, only the strip of the image it covers is decoded, its sub-images'
+ * brightness is calculated and matched to characters, and the finished row is sent to the output right
+ * away, so peak memory is bounded by one strip rather than by the whole (padded) image.
+ * The rows can also be dithered as they are converted, with the two rows of errors of
+ * {@link ErrorDiffusionDitherer}.
+ * The result is the same as converting the whole image with {@link AsciiArtAlgorithm}.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class StreamingAsciiArtConverter {
+    // Error messages
+    private static final String IMAGE_READING_ERROR = "Did not execute due to problem with image file.";
+    private static final String OUT_OF_RESOLUTION_BOUNDARIES = "Did not execute due to exceeding " +
+                                                                   "resolution boundaries.";
+
+    private final SubImgCharMatcher subImageMatcher; // Used for matching sub-images brightness to characters
+
+    /**
+     * Constructs a StreamingAsciiArtConverter with a specific {@link SubImgCharMatcher}.
+     *
+     * @param subImageMatcher The SubImgCharMatcher to use for matching sub-images to characters.
+     */
+    public StreamingAsciiArtConverter(SubImgCharMatcher subImageMatcher) {
+        this.subImageMatcher = subImageMatcher;
+    }
+
+    /**
+     * Converts the image in the given file to ASCII art, streaming its rows to the given output.
+     *
+     * @param imagePath The path of the image file.
+     * @param resolution The number of characters in each row.
+     * @param dithered Whether to match the sub-images with error diffusion, like
+     *                 {@link AsciiArtAlgorithm#runDithered(double[][])}.
+     * @param output The output to stream the rows to.
+     * @throws ImageLoadingException If an error occurs during image reading.
+     * @throws ResolutionOutOfBoundsException If the resolution is out of the boundaries of the image.
+     */
+    public void convert(String imagePath, int resolution, boolean dithered, StreamingAsciiOutput output)
+            throws ImageLoadingException, ResolutionOutOfBoundsException {
+        try (ImageStripReader stripReader = new ImageStripReader(imagePath)) {
+            int paddedWidth = stripReader.getPaddedWidth();
+            int paddedHeight = stripReader.getPaddedHeight();
+            if (resolution > paddedWidth || paddedWidth / resolution > paddedHeight) {
+                throw new ResolutionOutOfBoundsException(OUT_OF_RESOLUTION_BOUNDARIES);
+            }
+            int subImageSize = paddedWidth / resolution;
+            int numRows = paddedHeight / subImageSize;
+            ErrorDiffusionDitherer ditherer = dithered ? new ErrorDiffusionDitherer(subImageMatcher) : null;
+            int[][] errorRows = dithered ? ErrorDiffusionDitherer.createErrorRows(resolution) : null;
+
+            output.begin();
+            boolean converted = false;
+            try {
+                for (int row = 0; row < numRows; row++) {
+                    Image strip = stripReader.readStrip(row * subImageSize, subImageSize);
+                    double[] brightness = ImageProcessor.calculateStripSubImagesNormalizedGrayscaleAverages(
+                            strip, stripReader.getPaddingX(), subImageSize, resolution);
+                    char[] asciiRow = new char[resolution];
+                    if (dithered) {
+                        ditherer.ditherRow(brightness, asciiRow, errorRows);
+                    } else {
+                        for (int col = 0; col < resolution; col++) {
+                            asciiRow[col] = subImageMatcher.getCharByImageBrightness(brightness[col]);
+                        }
+                    }
+                    output.outRow(asciiRow);
+                }
+                converted = true;
+            } finally {
+                // A strip that failed to read stops the art, and the output must not stay open
+                if (converted) {
+                    output.end();
+                } else {
+                    output.abort();
+                }
+            }
+        } catch (IOException e) {
+            throw new ImageLoadingException(IMAGE_READING_ERROR);
+        }
+    }
+}
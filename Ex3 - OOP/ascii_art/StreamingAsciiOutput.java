@@ -0,0 +1,48 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+
+/**
+ * An {@link AsciiOutput} that can receive the ASCII art one row at a time, as the rows are produced, so
+ * the whole art never has to be held in memory. Writing a whole 2D array is the same as streaming its rows.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public interface StreamingAsciiOutput extends AsciiOutput {
+    /**
+     * Starts a new ASCII art, before its first row.
+     */
+    void begin();
+
+    /**
+     * Outputs the next row of the current ASCII art. The output may keep a reference to the row, so the
+     * caller should not modify it afterwards.
+     *
+     * @param row The characters of the row.
+     */
+    void outRow(char[] row);
+
+    /**
+     * Ends the current ASCII art, after its last row.
+     */
+    void end();
+
+    /**
+     * Abandons the current ASCII art, when an error stopped it before its last row, and releases whatever
+     * the output holds for it. The art is not completed.
+     */
+    void abort();
+
+    /**
+     * Outputs the given ASCII art by streaming its rows.
+     *
+     * @param chars The 2D array of characters representing the ASCII art.
+     */
+    @Override
+    default void out(char[][] chars) {
+        begin();
+        for (char[] row : chars) {
+            outRow(row);
+        }
+        end();
+    }
+}
@@ -0,0 +1,46 @@
+package ascii_art;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes ASCII art to a plain text file, one line per row, through a {@link java.nio.channels.FileChannel}.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class TextFileAsciiOutput extends ChannelAsciiOutput {
+    private static final String LINE_SEPARATOR = "\n";
+
+    /**
+     * Constructs an output to the given text file.
+     *
+     * @param filename The path of the text file to write to.
+     */
+    public TextFileAsciiOutput(String filename) {
+        super(filename);
+    }
+
+    /**
+     * Constructs an output to an open channel, such as the body of an HTTP response, which is closed when a
+     * single ASCII art was written to it.
+     *
+     * @param channel The channel to write the text to.
+     */
+    public TextFileAsciiOutput(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected String getHeader() {
+        return "";
+    }
+
+    @Override
+    protected String getFooter() {
+        return "";
+    }
+
+    @Override
+    protected void putRow(char[] row) {
+        putChars(row, 0, row.length);
+        putString(LINE_SEPARATOR);
+    }
+}
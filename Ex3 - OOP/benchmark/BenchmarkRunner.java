@@ -0,0 +1,142 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Measures the throughput and the allocation rate of a single operation.
+ * The operation is first run for some warmup iterations, so the JIT compiles it, and then for some measured
+ * iterations. Each iteration calls the operation repeatedly for a fixed duration, and counts the calls, the
+ * time they took and the bytes the current thread allocated meanwhile. The results of the calls are
+ * consumed, so the JIT can't eliminate them as dead code.
+ * <p>
+ * Allocation is measured per thread, so operations should run on the calling thread.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class BenchmarkRunner {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long UNSUPPORTED_ALLOCATION = -1;
+    private static final String RESULT_FORMAT = "%-42s %-38s %14.2f %12.4f %16s %14s%n";
+    private static final String HEADER_FORMAT = "%-42s %-38s %14s %12s %16s %14s%n";
+    private static final String NOT_AVAILABLE = "n/a";
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final com.sun.management.ThreadMXBean threadBean; // null if allocation can't be measured
+    private volatile int sink; // Consumes the results of the operations
+
+    /**
+     * Constructs a BenchmarkRunner.
+     *
+     * @param warmupIterations The number of iterations to run before measuring.
+     * @param measurementIterations The number of measured iterations.
+     * @param iterationMillis The duration of each iteration, in milliseconds. An iteration calls the
+     *                        operation at least once, even if a single call takes longer.
+     */
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * NANOS_PER_MILLI;
+        this.threadBean = getAllocationMeasuringThreadBean();
+    }
+
+    /**
+     * Prints the header of the results table.
+     */
+    public void printHeader() {
+        System.out.printf(HEADER_FORMAT, "Benchmark", "Parameters", "ops/s", "ms/op", "alloc bytes/op",
+                          "alloc MB/s");
+    }
+
+    /**
+     * Measures an operation and prints its row in the results table.
+     *
+     * @param name The name of the benchmark.
+     * @param parameters A description of the parameters of the benchmark.
+     * @param operation The operation to measure.
+     */
+    public void run(String name, String parameters, Supplier<?> operation) {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation);
+        }
+        long totalCalls = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long[] iteration = runIteration(operation);
+            totalCalls += iteration[0];
+            totalNanos += iteration[1];
+            totalBytes += iteration[2];
+        }
+
+        double seconds = totalNanos / NANOS_PER_SECOND;
+        double opsPerSecond = totalCalls / seconds;
+        double millisPerOp = (double) totalNanos / NANOS_PER_MILLI / totalCalls;
+        String bytesPerOp = NOT_AVAILABLE;
+        String megabytesPerSecond = NOT_AVAILABLE;
+        if (threadBean != null) {
+            bytesPerOp = String.valueOf(totalBytes / totalCalls);
+            megabytesPerSecond = String.format("%.1f", totalBytes / seconds / (1 << 20));
+        }
+        System.out.printf(RESULT_FORMAT, name, parameters, opsPerSecond, millisPerOp, bytesPerOp,
+                          megabytesPerSecond);
+    }
+
+    /**
+     * Prints a row for a benchmark that could not be run with some parameters.
+     *
+     * @param name The name of the benchmark.
+     * @param parameters A description of the parameters of the benchmark.
+     * @param reason Why the benchmark was skipped.
+     */
+    public void skip(String name, String parameters, String reason) {
+        System.out.printf(HEADER_FORMAT, name, parameters, "skipped: " + reason, "", "", "");
+    }
+
+    /*
+     * Runs a single iteration, and returns the number of calls, the nanoseconds they took and the bytes
+     * allocated by them.
+     */
+    private long[] runIteration(Supplier<?> operation) {
+        long calls = 0;
+        long startBytes = getAllocatedBytes();
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            Object result = operation.get();
+            sink += System.identityHashCode(result);
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        long allocatedBytes = getAllocatedBytes() - startBytes;
+        return new long[]{calls, elapsed, allocatedBytes};
+    }
+
+    /*
+     * Returns the number of bytes the current thread allocated so far, or UNSUPPORTED_ALLOCATION.
+     */
+    private long getAllocatedBytes() {
+        if (threadBean == null) {
+            return UNSUPPORTED_ALLOCATION;
+        }
+        return threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /*
+     * Returns the thread bean of the platform if it can measure the bytes allocated by a thread, or null.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationMeasuringThreadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+}
@@ -0,0 +1,339 @@
+package benchmark;
+
+import ascii_art.AsciiArtAlgorithm;
+import image.BrightnessPyramid;
+import image.GreyscaleIntegralImage;
+import image.Image;
+import image.ImageProcessor;
+import image.RowScheduler;
+import image_char_matching.CharConverter;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks the stages of the ASCII art pipeline: loading an image, padding it, dividing it into
+ * sub-images and calculating their brightness, matching brightness to characters, rasterizing characters
+ * and running the algorithm. Each stage is measured for every combination of the parameters it depends on,
+ * and its throughput and allocation rate are printed in a table. Fixture images are generated in-process.
+ * <p>
+ * Usage: java benchmark.PipelineBenchmark [key=value ...], where the keys are
+ * <ul>
+ *     <li>sizes - image sizes in megapixels (default 1,4,16,64; 64 needs a heap of a few GB).</li>
+ *     <li>resolutions - resolutions (default 2,8,32,128,512,2048). Resolutions out of an image's
+ *     boundaries are skipped.</li>
+ *     <li>charsets - character sets: 10 (a ten level ramp), 95 (printable ASCII) or unicode (printable
+ *     ASCII, Latin-1 Supplement, Box Drawing and Block Elements). Default 10,95,unicode.</li>
+ *     <li>benchmarks - the benchmarks to run (default all of them).</li>
+ *     <li>warmup, iterations and millis - warmup iterations, measured iterations and the duration of each
+ *     iteration in milliseconds (default 3, 5 and 500).</li>
+ * </ul>
+ * Everything runs on the calling thread, so the allocation of every stage is measured.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class PipelineBenchmark {
+    private static final String TEN_LEVELS_CHARSET = "10";
+    private static final String ASCII_CHARSET = "95";
+    private static final String UNICODE_CHARSET = "unicode";
+    private static final String TEN_LEVELS_CHARS = " .:-=+*#%@";
+    private static final char FIRST_PRINTABLE_ASCII = ' ';
+    private static final char LAST_PRINTABLE_ASCII = '~';
+    // Unicode blocks of the unicode charset, as pairs of first and last characters
+    private static final char[][] UNICODE_BLOCKS = {
+            {'\u00A0', '\u00FF'}, // Latin-1 Supplement
+            {'\u2500', '\u257F'}, // Box Drawing
+            {'\u2580', '\u259F'}, // Block Elements
+    };
+    private static final int LOOKUPS_PER_OPERATION = 1024;
+    private static final long FIXTURE_SEED = 42;
+    private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+    private static final String OUT_OF_MEMORY = "out of memory";
+    private static final String OUT_OF_RESOLUTION_BOUNDARIES = "resolution out of image boundaries";
+    private static final String FIXTURE_PREFIX = "benchmark_fixture_";
+    private static final String FIXTURE_FORMAT = "png";
+    private static final String LIST_SEPARATOR = ",";
+    private static final String OPTION_SEPARATOR = "=";
+
+    // Benchmark names
+    private static final String IMAGE_LOAD = "imageLoad";
+    private static final String PAD_IMAGE = "padImage";
+    private static final String DIVIDE_INTO_SUB_IMAGE_REGIONS = "divideIntoSubImageRegions";
+    private static final String SUB_IMAGES_AVERAGES = "subImagesAverages";
+    private static final String IMAGE_AVERAGE = "calculateImageNormalizedGrayscaleAverage";
+    private static final String BRIGHTNESS_PYRAMID = "brightnessPyramid";
+    private static final String INTEGRAL_IMAGE = "integralImage";
+    private static final String INTEGRAL_IMAGE_AVERAGES = "integralImageAverages";
+    private static final String MATCHER_ADD_REMOVE = "matcherAddRemove";
+    private static final String MATCHER_LOOKUP = "matcherLookup";
+    private static final String CONVERT_TO_BOOL_ARRAY = "convertToBoolArray";
+    private static final String CONVERT_TO_BOOL_ARRAYS = "convertToBoolArrays";
+    private static final String ASCII_ART_RUN = "asciiArtRun";
+    private static final String ALL_BENCHMARKS = "all";
+
+    // Default options
+    private static final Map<String, String> DEFAULT_OPTIONS = Map.of(
+            "sizes", "1,4,16,64",
+            "resolutions", "2,8,32,128,512,2048",
+            "charsets", "10,95,unicode",
+            "benchmarks", ALL_BENCHMARKS,
+            "warmup", "3",
+            "iterations", "5",
+            "millis", "500");
+
+    private final BenchmarkRunner runner;
+    private final int[] sizes;
+    private final int[] resolutions;
+    private final String[] charsets;
+    private final List<String> benchmarks;
+
+    /*
+     * Constructs a PipelineBenchmark with the given options.
+     */
+    private PipelineBenchmark(Map<String, String> options) {
+        this.runner = new BenchmarkRunner(Integer.parseInt(options.get("warmup")),
+                                          Integer.parseInt(options.get("iterations")),
+                                          Long.parseLong(options.get("millis")));
+        this.sizes = parseInts(options.get("sizes"));
+        this.resolutions = parseInts(options.get("resolutions"));
+        this.charsets = options.get("charsets").split(LIST_SEPARATOR);
+        this.benchmarks = List.of(options.get("benchmarks").split(LIST_SEPARATOR));
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args Options as key=value pairs, see the class documentation.
+     * @throws IOException If a fixture image file could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>(DEFAULT_OPTIONS);
+        for (String arg : args) {
+            String[] option = arg.split(OPTION_SEPARATOR, 2);
+            if (option.length != 2 || !DEFAULT_OPTIONS.containsKey(option[0])) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            options.put(option[0], option[1]);
+        }
+        new PipelineBenchmark(options).runAll();
+    }
+
+    /*
+     * Runs every selected benchmark with every combination of its parameters.
+     */
+    private void runAll() throws IOException {
+        runner.printHeader();
+        for (int size : sizes) {
+            runImageBenchmarks(size);
+        }
+        for (String charset : charsets) {
+            runCharsetBenchmarks(charset);
+        }
+    }
+
+    /*
+     * Runs the benchmarks that depend on the image size (and on the resolution).
+     */
+    private void runImageBenchmarks(int megapixels) throws IOException {
+        String sizeParameter = "size=" + megapixels + "MP";
+        Image image;
+        try {
+            image = createFixtureImage(megapixels);
+        } catch (OutOfMemoryError e) {
+            runner.skip("image benchmarks", sizeParameter, OUT_OF_MEMORY);
+            return;
+        }
+        if (isSelected(IMAGE_LOAD)) {
+            File file = writeFixtureImage(image);
+            String path = file.getPath();
+            run(IMAGE_LOAD, sizeParameter, () -> {
+                try {
+                    return new Image(path);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            file.delete();
+        }
+        run(PAD_IMAGE, sizeParameter, () -> ImageProcessor.padImage(image));
+
+        Image paddedImage = ImageProcessor.padImage(image);
+        run(IMAGE_AVERAGE, sizeParameter,
+            () -> ImageProcessor.calculateImageNormalizedGrayscaleAverage(paddedImage));
+        run(BRIGHTNESS_PYRAMID, sizeParameter, () -> new BrightnessPyramid(paddedImage));
+        run(INTEGRAL_IMAGE, sizeParameter, () -> new GreyscaleIntegralImage(paddedImage));
+        GreyscaleIntegralImage integralImage = new GreyscaleIntegralImage(paddedImage);
+        for (int resolution : resolutions) {
+            String parameters = sizeParameter + " res=" + resolution;
+            int subImageSize = paddedImage.getWidth() / resolution;
+            if (subImageSize < 1 || subImageSize > paddedImage.getHeight()) {
+                runner.skip(DIVIDE_INTO_SUB_IMAGE_REGIONS, parameters, OUT_OF_RESOLUTION_BOUNDARIES);
+                continue;
+            }
+            run(DIVIDE_INTO_SUB_IMAGE_REGIONS, parameters,
+                () -> ImageProcessor.divideIntoSubImageRegions(paddedImage, resolution));
+            run(SUB_IMAGES_AVERAGES, parameters,
+                () -> ImageProcessor.calculateRegionsNormalizedGrayscaleAverages(
+                        ImageProcessor.divideIntoSubImageRegions(paddedImage, resolution)));
+            run(INTEGRAL_IMAGE_AVERAGES, parameters,
+                () -> ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(integralImage,
+                                                                                   resolution));
+        }
+    }
+
+    /*
+     * Runs the benchmarks that depend on the character set (and on the resolution).
+     */
+    private void runCharsetBenchmarks(String charset) {
+        char[] chars = getCharset(charset);
+        String charsetParameter = "charset=" + charset + " (" + chars.length + " chars)";
+        SubImgCharMatcher matcher = new SubImgCharMatcher(chars);
+
+        int[] nextChar = {0};
+        run(MATCHER_ADD_REMOVE, charsetParameter, () -> {
+            char c = chars[nextChar[0]++ % chars.length];
+            matcher.removeChar(c);
+            matcher.addChar(c);
+            return matcher;
+        });
+
+        double[] brightness = new Random(FIXTURE_SEED).doubles(LOOKUPS_PER_OPERATION).toArray();
+        run(MATCHER_LOOKUP, charsetParameter + " x" + LOOKUPS_PER_OPERATION, () -> {
+            int checksum = 0;
+            for (double value : brightness) {
+                checksum += matcher.getCharByImageBrightness(value);
+            }
+            return checksum;
+        });
+
+        run(CONVERT_TO_BOOL_ARRAY, charsetParameter,
+            () -> CharConverter.convertToBoolArray(chars[nextChar[0]++ % chars.length]));
+        run(CONVERT_TO_BOOL_ARRAYS, charsetParameter, () -> CharConverter.convertToBoolArrays(chars));
+
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(matcher, RowScheduler.SEQUENTIAL);
+        for (int resolution : resolutions) {
+            String parameters = charsetParameter + " res=" + resolution;
+            double[][] grid;
+            try {
+                grid = createFixtureBrightnessGrid(resolution);
+            } catch (OutOfMemoryError e) {
+                runner.skip(ASCII_ART_RUN, parameters, OUT_OF_MEMORY);
+                continue;
+            }
+            run(ASCII_ART_RUN, parameters, () -> asciiArtAlgorithm.run(grid));
+        }
+    }
+
+    /*
+     * Runs a benchmark if it is selected, and skips it if it runs out of memory.
+     */
+    private void run(String name, String parameters, Supplier<?> operation) {
+        if (!isSelected(name)) {
+            return;
+        }
+        try {
+            runner.run(name, parameters, operation);
+        } catch (OutOfMemoryError e) {
+            runner.skip(name, parameters, OUT_OF_MEMORY);
+        }
+    }
+
+    /*
+     * Checks whether a benchmark was selected to run.
+     */
+    private boolean isSelected(String name) {
+        return benchmarks.contains(ALL_BENCHMARKS) || benchmarks.contains(name);
+    }
+
+    /*
+     * Creates a square image of about the given number of megapixels, with an even side that is not a power
+     * of two, so it is padded. Its pixels are a gradient with noise, so they are not all matched to the
+     * same character.
+     */
+    private static Image createFixtureImage(int megapixels) {
+        int side = (int) Math.sqrt(megapixels * PIXELS_PER_MEGAPIXEL) & ~1;
+        int[] pixels = new int[side * side];
+        Random random = new Random(FIXTURE_SEED);
+        for (int row = 0; row < side; row++) {
+            for (int col = 0; col < side; col++) {
+                int red = (col * 255 / side + random.nextInt(32)) & 0xFF;
+                int green = (row * 255 / side + random.nextInt(32)) & 0xFF;
+                int blue = ((row + col) * 127 / side) & 0xFF;
+                pixels[row * side + col] = (red << 16) | (green << 8) | blue;
+            }
+        }
+        return new Image(pixels, side, side);
+    }
+
+    /*
+     * Writes an image to a temporary file, to be loaded by the image loading benchmark.
+     */
+    private static File writeFixtureImage(Image image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                bufferedImage.setRGB(col, row, image.getPixelRGB(row, col));
+            }
+        }
+        File file = File.createTempFile(FIXTURE_PREFIX, "." + FIXTURE_FORMAT);
+        file.deleteOnExit();
+        ImageIO.write(bufferedImage, FIXTURE_FORMAT, file);
+        return file;
+    }
+
+    /*
+     * Creates a square grid of random sub-images brightness, as a brightness grid of the given resolution.
+     */
+    private static double[][] createFixtureBrightnessGrid(int resolution) {
+        Random random = new Random(FIXTURE_SEED);
+        double[][] grid = new double[resolution][resolution];
+        for (double[] row : grid) {
+            for (int col = 0; col < row.length; col++) {
+                row[col] = random.nextDouble();
+            }
+        }
+        return grid;
+    }
+
+    /*
+     * Returns the characters of a named character set.
+     */
+    private static char[] getCharset(String charset) {
+        if (charset.equals(TEN_LEVELS_CHARSET)) {
+            return TEN_LEVELS_CHARS.toCharArray();
+        }
+        if (!charset.equals(ASCII_CHARSET) && !charset.equals(UNICODE_CHARSET)) {
+            throw new IllegalArgumentException("Unknown charset: " + charset);
+        }
+        StringBuilder chars = new StringBuilder();
+        for (char c = FIRST_PRINTABLE_ASCII; c <= LAST_PRINTABLE_ASCII; c++) {
+            chars.append(c);
+        }
+        if (charset.equals(UNICODE_CHARSET)) {
+            for (char[] block : UNICODE_BLOCKS) {
+                for (char c = block[0]; c <= block[1]; c++) {
+                    chars.append(c);
+                }
+            }
+        }
+        return chars.toString().toCharArray();
+    }
+
+    /*
+     * Parses a comma separated list of integers.
+     */
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(LIST_SEPARATOR)).map(String::trim).mapToInt(Integer::parseInt)
+                     .toArray();
+    }
+}
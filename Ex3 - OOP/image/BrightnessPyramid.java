@@ -0,0 +1,269 @@
+package image;
+
+import java.util.Arrays;
+
+/**
+ * A mip-style pyramid of the average brightness of the square sub-images of an image, for every resolution
+ * the image supports. Level k of the pyramid holds the sums of the sub-images of size 2^k x 2^k, and is built
+ * from the 2x2 sums of level k - 1, so the whole pyramid is built once per image in O(pixels), after which
+ * the brightness grid of any resolution is a conversion of one level.
+ * <p>
+ * The levels are kept as fixed point sums (see {@link ImageProcessor#GREYSCALE_SCALE}), in ints as long as
+ * the sums of their sub-images fit in them, so every level is exactly the average of its pixels. Only the
+ * sub-images that overlap the content of the image are stored, since the others are all white padding, so
+ * the whole pyramid takes about a byte and a third per pixel of the content. The levels are converted to
+ * normalized brightness only when a grid is requested, and only the last grid requested is kept. The first
+ * level, of single pixels, is not kept at all, since the image itself holds it: its grid is converted from
+ * the pixels of the image.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class BrightnessPyramid {
+    private static final long WHITE_LUMA = ImageProcessor.WHITE_SCALED_INTENSITY;
+    private static final double WHITE_BRIGHTNESS = ImageProcessor.normalizeGreyscaleSum(WHITE_LUMA, 1);
+    private static final int PIXELS_PER_TWO_BY_TWO = 4;
+    // The deepest level whose sums fit in an int: a sub-image of level k sums up to 4^k white pixels, so
+    // 4^k must not exceed Integer.MAX_VALUE / WHITE_LUMA
+    private static final int MAX_INT_SUMS_LEVEL =
+            (Long.SIZE - 1 - Long.numberOfLeadingZeros(Integer.MAX_VALUE / WHITE_LUMA)) / 2;
+
+    private final Image image; // The first level, of single pixels
+    private final RowScheduler rowScheduler; // Used for building the levels and converting them to grids
+    private final LevelSums[] levels; // levels[k] holds the sums of sub-images of size 2^k, levels[0] is null
+    private final int width;
+    private final int height;
+    // The last grid requested, and its resolution, so a grid requested again is the same array
+    private double[][] lastGrid;
+    private int lastGridResolution;
+
+    /*
+     * The fixed point intensity sums of the sub-images of a level that overlap the content of the image,
+     * row-major. Every other sub-image is all padding, so its sum is known without storing it.
+     */
+    private static final class LevelSums {
+        private final int firstRow; // The first row and column of sub-images that overlap the content
+        private final int firstCol;
+        private final int rows; // The number of rows and columns of sub-images that overlap the content
+        private final int cols;
+        private final long whiteSum; // The sum of a sub-image of the level that is all padding
+        private final int[] intSums; // Used when the sums fit in an int, otherwise null
+        private final long[] longSums; // Used when the sums don't fit in an int, otherwise null
+
+        private LevelSums(Image image, int level) {
+            this.firstRow = image.getPaddingTop() >> level;
+            this.firstCol = image.getPaddingLeft() >> level;
+            this.rows = ((image.getPaddingTop() + image.getContentHeight() - 1) >> level) + 1 - firstRow;
+            this.cols = ((image.getPaddingLeft() + image.getContentWidth() - 1) >> level) + 1 - firstCol;
+            this.whiteSum = WHITE_LUMA << (2 * level);
+            this.intSums = level <= MAX_INT_SUMS_LEVEL ? new int[rows * cols] : null;
+            this.longSums = level <= MAX_INT_SUMS_LEVEL ? null : new long[rows * cols];
+        }
+
+        /*
+         * Gets the sum of a sub-image of the level, by its row and column in the whole level.
+         */
+        private long get(int row, int col) {
+            int storedRow = row - firstRow;
+            int storedCol = col - firstCol;
+            if (storedRow < 0 || storedRow >= rows || storedCol < 0 || storedCol >= cols) {
+                return whiteSum;
+            }
+            int index = storedRow * cols + storedCol;
+            return intSums != null ? intSums[index] : longSums[index];
+        }
+
+        /*
+         * Sets the sum of a sub-image that overlaps the content, by its row and column in the whole level.
+         */
+        private void set(int row, int col, long sum) {
+            int index = (row - firstRow) * cols + col - firstCol;
+            if (intSums != null) {
+                intSums[index] = (int) sum;
+            } else {
+                longSums[index] = sum;
+            }
+        }
+    }
+
+    /**
+     * Builds the brightness pyramid of the given image, sequentially.
+     *
+     * @param image the image to build the pyramid of, assumed to be with dimensions that are powers of two.
+     */
+    public BrightnessPyramid(Image image) {
+        this(image, RowScheduler.SEQUENTIAL);
+    }
+
+    /**
+     * Builds the brightness pyramid of the given image, processing the rows of each level with the given
+     * scheduler. The pyramid is identical for any scheduler. The image is kept, and its pixels are read again
+     * when the grid of the highest resolution is requested.
+     *
+     * @param image the image to build the pyramid of, assumed to be with dimensions that are powers of two.
+     * @param rowScheduler the scheduler to process the rows of each level with.
+     */
+    public BrightnessPyramid(Image image, RowScheduler rowScheduler) {
+        this.image = image;
+        this.rowScheduler = rowScheduler;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        // A sub-image can't be larger than the image in any dimension
+        int levelCount = Integer.numberOfTrailingZeros(Math.min(width, height)) + 1;
+        this.levels = new LevelSums[levelCount];
+        if (levelCount > 1) {
+            levels[1] = sumPixelsTwoByTwo();
+        }
+        for (int level = 2; level < levelCount; level++) {
+            levels[level] = sumTwoByTwo(levels[level - 1], level);
+        }
+    }
+
+    /**
+     * Returns the normalized brightness of the sub-images for the given resolution. The grid is converted
+     * from the level's sums, or from the image's pixels for the highest resolution, unless it is the grid
+     * requested last, in which case the same array is returned.
+     * The returned array is shared, and should not be modified.
+     *
+     * @param resolution The number of sub-images along one row, a power of two between
+     *                   {@link #getMinResolution()} and {@link #getMaxResolution()}.
+     * @return A 2D array of the normalized average brightness of each sub-image, in the range [0, 1].
+     */
+    public synchronized double[][] getLevel(int resolution) {
+        if (lastGrid == null || lastGridResolution != resolution) {
+            int level = Integer.numberOfTrailingZeros(width / resolution);
+            lastGrid = level == 0 ? normalizePixels() : normalizeLevel(levels[level], level);
+            lastGridResolution = resolution;
+        }
+        return lastGrid;
+    }
+
+    /**
+     * Returns the lowest resolution in the pyramid, in which the sub-images are as high as the image.
+     *
+     * @return the lowest supported resolution.
+     */
+    public int getMinResolution() {
+        return width >> (levels.length - 1);
+    }
+
+    /**
+     * Returns the lowest resolution in the pyramid of an image of the given dimensions, without building it.
+     *
+     * @param width the width of the image, a power of two.
+     * @param height the height of the image, a power of two.
+     * @return the lowest resolution the pyramid of the image would support.
+     */
+    public static int getMinResolution(int width, int height) {
+        return width >> Integer.numberOfTrailingZeros(Math.min(width, height));
+    }
+
+    /**
+     * Returns the highest resolution in the pyramid, in which every sub-image is a single pixel.
+     *
+     * @return the highest supported resolution.
+     */
+    public int getMaxResolution() {
+        return width;
+    }
+
+    /*
+     * Sums every 2x2 square of the pixels' intensities into a single entry of the second level, for the
+     * sub-images that overlap the content. Each row of the level is summed from the rows of content pixels it
+     * covers, converted by the luma kernel, so the intensities of the whole image are never stored. The
+     * padding is known to be white, so its pixels are neither stored nor read: each sub-image adds the white
+     * of the pixels it has outside the content, counted from the content's bounds.
+     */
+    private LevelSums sumPixelsTwoByTwo() {
+        LevelSums sums = new LevelSums(image, 1);
+        int paddingLeft = image.getPaddingLeft();
+        int paddingTop = image.getPaddingTop();
+        int contentWidth = image.getContentWidth();
+        int contentHeight = image.getContentHeight();
+        int colShift = paddingLeft - 2 * sums.firstCol; // The column of the first content pixel in its row
+        rowScheduler.forEachRow(sums.rows, storedRow -> {
+            int row = sums.firstRow + storedRow;
+            int[] luma = new int[contentWidth];
+            int[] rowSums = new int[sums.cols];
+            int firstContentRow = Math.max(2 * row - paddingTop, 0);
+            int endContentRow = Math.min(2 * row + 2 - paddingTop, contentHeight);
+            for (int contentRow = firstContentRow; contentRow < endContentRow; contentRow++) {
+                LumaKernel.PREFERRED.toLuma(image.getContentPixels(), contentRow * contentWidth, contentWidth,
+                                            luma, 0);
+                for (int contentCol = 0; contentCol < contentWidth; contentCol++) {
+                    rowSums[(contentCol + colShift) >> 1] += luma[contentCol];
+                }
+            }
+            int contentRows = endContentRow - firstContentRow;
+            for (int storedCol = 0; storedCol < sums.cols; storedCol++) {
+                int col = sums.firstCol + storedCol;
+                int contentCols = Math.min(2 * col + 2 - paddingLeft, contentWidth) -
+                                  Math.max(2 * col - paddingLeft, 0);
+                long paddingPixels = PIXELS_PER_TWO_BY_TWO - (long) contentRows * contentCols;
+                sums.set(row, col, rowSums[storedCol] + paddingPixels * WHITE_LUMA);
+            }
+        });
+        return sums;
+    }
+
+    /*
+     * Sums every 2x2 square of a level into a single entry of the next level, for the sub-images of the next
+     * level that overlap the content.
+     */
+    private LevelSums sumTwoByTwo(LevelSums sums, int nextLevel) {
+        LevelSums nextSums = new LevelSums(image, nextLevel);
+        rowScheduler.forEachRow(nextSums.rows, storedRow -> {
+            int row = nextSums.firstRow + storedRow;
+            for (int col = nextSums.firstCol; col < nextSums.firstCol + nextSums.cols; col++) {
+                int top = 2 * row;
+                int left = 2 * col;
+                nextSums.set(row, col, sums.get(top, left) + sums.get(top, left + 1) +
+                                       sums.get(top + 1, left) + sums.get(top + 1, left + 1));
+            }
+        });
+        return nextSums;
+    }
+
+    /*
+     * Converts the pixels of the image to their normalized brightness, the grid of the first level. Only the
+     * pixels of the content are read, the padding is white.
+     */
+    private double[][] normalizePixels() {
+        int paddingLeft = image.getPaddingLeft();
+        int paddingTop = image.getPaddingTop();
+        int contentWidth = image.getContentWidth();
+        double[][] brightness = new double[height][width];
+        rowScheduler.forEachRow(height, row -> {
+            int contentRow = row - paddingTop;
+            if (contentRow < 0 || contentRow >= image.getContentHeight()) {
+                Arrays.fill(brightness[row], WHITE_BRIGHTNESS);
+                return;
+            }
+            int[] luma = new int[contentWidth];
+            LumaKernel.PREFERRED.toLuma(image.getContentPixels(), contentRow * contentWidth, contentWidth,
+                                        luma, 0);
+            Arrays.fill(brightness[row], 0, paddingLeft, WHITE_BRIGHTNESS);
+            for (int contentCol = 0; contentCol < contentWidth; contentCol++) {
+                brightness[row][paddingLeft + contentCol] = ImageProcessor.normalizeGreyscaleSum(
+                        luma[contentCol], 1);
+            }
+            Arrays.fill(brightness[row], paddingLeft + contentWidth, width, WHITE_BRIGHTNESS);
+        });
+        return brightness;
+    }
+
+    /*
+     * Converts a level of fixed point sums to the normalized average brightness of its sub-images.
+     */
+    private double[][] normalizeLevel(LevelSums sums, int level) {
+        int levelWidth = width >> level;
+        int levelHeight = height >> level;
+        long pixelsPerSubImage = 1L << (2 * level);
+        double[][] brightness = new double[levelHeight][levelWidth];
+        rowScheduler.forEachRow(levelHeight, row -> {
+            for (int col = 0; col < levelWidth; col++) {
+                brightness[row][col] = ImageProcessor.normalizeGreyscaleSum(sums.get(row, col),
+                                                                            pixelsPerSubImage);
+            }
+        });
+        return brightness;
+    }
+}
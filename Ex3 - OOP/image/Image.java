@@ -12,29 +12,37 @@ import java.io.IOException;
  */
 public class Image {
 
-    private final Color[][] pixelArray;
+    private static final int PADDING_RGB = Color.WHITE.getRGB();
+
+    private final int[] pixels; // Packed ARGB values of the content, row-major, one int per pixel
     private final int width;
     private final int height;
+    // The content is placed at these offsets, and every pixel around it is white padding, which is not stored
+    private final int paddingLeft;
+    private final int paddingTop;
+    private final int contentWidth;
+    private final int contentHeight;
 
     /**
      * Constructs an Image by loading it from a specified file.
-     * The image is read into a 2D array of {@link Color} objects representing each pixel.
+     * The image is read with a single bulk raster read into a packed ARGB plane, so no {@link Color}
+     * object is created per pixel.
      *
      * @param filename the path to the image file to be loaded.
      * @throws IOException if an error occurs during image reading.
      */
     public Image(String filename) throws IOException {
         BufferedImage im = ImageIO.read(new File(filename));
+        if (im == null) { // No registered reader could decode the file
+            throw new IOException("Unsupported image format: " + filename);
+        }
         width = im.getWidth();
         height = im.getHeight();
-
-
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
-            }
-        }
+        pixels = im.getRGB(0, 0, width, height, null, 0, width);
+        paddingLeft = 0;
+        paddingTop = 0;
+        contentWidth = width;
+        contentHeight = height;
     }
 
     /**
@@ -46,9 +54,43 @@ public class Image {
      * @param height the height of the image in pixels.
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+        this(new int[width * height], width, height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                pixels[row * width + col] = pixelArray[row][col].getRGB();
+            }
+        }
+    }
+
+    /**
+     * Constructs an Image from a packed ARGB plane. The array is used as is and is not copied.
+     *
+     * @param pixels the packed ARGB values of the image, row-major, of length width * height.
+     * @param width the width of the image in pixels.
+     * @param height the height of the image in pixels.
+     */
+    public Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.paddingLeft = 0;
+        this.paddingTop = 0;
+        this.contentWidth = width;
+        this.contentHeight = height;
+    }
+
+    /*
+     * Constructs a padded view of an image, which shares the image's pixels and places them at the given
+     * offsets in a larger white image, without storing the padding.
+     */
+    Image(Image content, int width, int height, int paddingLeft, int paddingTop) {
+        this.pixels = content.pixels;
         this.width = width;
         this.height = height;
+        this.paddingLeft = content.paddingLeft + paddingLeft;
+        this.paddingTop = content.paddingTop + paddingTop;
+        this.contentWidth = content.contentWidth;
+        this.contentHeight = content.contentHeight;
     }
 
     /**
@@ -71,13 +113,66 @@ public class Image {
 
     /**
      * Retrieves the {@link Color} of a specific pixel in the image.
+     * A new {@link Color} is created on every call, prefer {@link #getPixelRGB(int, int)} in loops.
      *
      * @param x the x-coordinate of the pixel.
      * @param y the y-coordinate of the pixel.
      * @return the {@link Color} of the specified pixel.
      */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getPixelRGB(x, y));
+    }
+
+    /**
+     * Retrieves the packed ARGB value of a specific pixel in the image. Pixels of the padding are white.
+     *
+     * @param x the x-coordinate (row) of the pixel.
+     * @param y the y-coordinate (column) of the pixel.
+     * @return the packed ARGB value of the specified pixel.
+     */
+    public int getPixelRGB(int x, int y) {
+        int contentRow = x - paddingTop;
+        int contentCol = y - paddingLeft;
+        if (contentRow < 0 || contentRow >= contentHeight || contentCol < 0 || contentCol >= contentWidth) {
+            return PADDING_RGB;
+        }
+        return pixels[contentRow * contentWidth + contentCol];
+    }
+
+    /*
+     * Gets the packed ARGB plane of the content, row-major, of length contentWidth * contentHeight. The array
+     * is shared, and should not be modified.
+     */
+    int[] getContentPixels() {
+        return pixels;
+    }
+
+    /*
+     * Gets the number of padding columns on the left of the content.
+     */
+    int getPaddingLeft() {
+        return paddingLeft;
+    }
+
+    /*
+     * Gets the number of padding rows above the content.
+     */
+    int getPaddingTop() {
+        return paddingTop;
+    }
+
+    /*
+     * Gets the width of the content, which is the whole width of an image that is not padded.
+     */
+    int getContentWidth() {
+        return contentWidth;
+    }
+
+    /*
+     * Gets the height of the content, which is the whole height of an image that is not padded.
+     */
+    int getContentHeight() {
+        return contentHeight;
     }
 
     /**
@@ -89,15 +184,15 @@ public class Image {
      * @throws RuntimeException if an error occurs during file writing.
      */
     public void saveImage(String fileName) {
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-            }
+        // Initialize BufferedImage white, and copy the packed content into it in a single bulk write.
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (contentWidth != width || contentHeight != height) {
+            Graphics2D graphics = bufferedImage.createGraphics();
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.dispose();
         }
+        bufferedImage.setRGB(paddingLeft, paddingTop, contentWidth, contentHeight, pixels, 0, contentWidth);
         File outputfile = new File(fileName+".jpeg");
         try {
             ImageIO.write(bufferedImage, "jpeg", outputfile);
@@ -1,6 +1,6 @@
 package image;
 
-import java.awt.*;
+import java.util.Arrays;
 
 /**
  * This class is responsible for processing images, such as padding and dividing into sub-images.
@@ -8,15 +8,34 @@ import java.awt.*;
  */
 public class ImageProcessor {
     private static final int MAX_INTENSITY = 255;
-    private static final double RED_WEIGHT_TO_GREYSCALE = 0.2126;
-    private static final double GREEN_WEIGHT_TO_GREYSCALE = 0.7152;
-    private static final double BLUE_WEIGHT_TO_GREYSCALE = 0.0722;
+    // Greyscale weights in fixed point, scaled by GREYSCALE_SCALE (0.2126, 0.7152 and 0.0722), shared with
+    // the luma kernels
+    static final int RED_WEIGHT_TO_GREYSCALE = 2126;
+    static final int GREEN_WEIGHT_TO_GREYSCALE = 7152;
+    static final int BLUE_WEIGHT_TO_GREYSCALE = 722;
+    /**
+     * The factor by which fixed point greyscale intensities are scaled, so they can be summed exactly.
+     */
+    static final int GREYSCALE_SCALE = 10000;
+    /**
+     * The fixed point greyscale intensity of a white pixel, such as a pixel of the padding.
+     */
+    static final long WHITE_SCALED_INTENSITY = (long) MAX_INTENSITY * GREYSCALE_SCALE;
+    // 64-bit FNV-1a parameters, for hashing the content of images
+    private static final long HASH_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+    // Positions of the channels in a packed RGB value, shared with the luma kernels
+    static final int RED_SHIFT = 16;
+    static final int GREEN_SHIFT = 8;
+    static final int CHANNEL_MASK = 0xFF;
 
     /**
      * Pads the image with white pixels to make its dimensions the closest power of two.
      * If the width and height of the image are already powers of two, no padding is applied.
      * Assumes the width and height of the image are even, padding symmetrically in both
      * sides to achieve the closest power of two dimensions.
+     * The padded image is a view that shares the pixels of the given image, and its padding is not stored,
+     * so padding costs no memory and no copying.
      */
     public static Image padImage(Image image) {
         int imageWidth = image.getWidth();
@@ -30,21 +49,30 @@ public class ImageProcessor {
         int paddingX = (newWidth - imageWidth) / 2;
         int paddingY = (newHeight - imageHeight) / 2;
 
-        // Create a new pixel array with the new dimensions
-        Color[][] newPixelArray = new Color[newHeight][newWidth];
-
-        // Copy the original pixel array into the new pixel array with padding
-        for (int row = 0; row < newHeight; row++) {
-            for (int col = 0; col < newWidth; col++) {
-                if (isPadPixel(row, paddingY, col, paddingX, imageWidth, imageHeight)) {
-                    newPixelArray[row][col] = Color.WHITE; // Padding with white pixels
-                } else {
-                    newPixelArray[row][col] = image.getPixel(row - paddingY, col - paddingX);
-                }
-            }
-        }
+        return new Image(image, newWidth, newHeight, paddingX, paddingY);
+    }
 
-        return new Image(newPixelArray, newWidth, newHeight);
+    /**
+     * Calculates a 64-bit hash of the dimensions and the pixels of an image, such that images with the same
+     * content (and the same padding) have the same hash, and different images are very unlikely to.
+     * Only the pixels of the content are hashed, the padding is determined by the dimensions.
+     *
+     * @param image the image to hash.
+     * @return the hash of the image.
+     */
+    public static long calculateContentHash(Image image) {
+        long hash = HASH_OFFSET_BASIS;
+        int[] dimensions = {image.getWidth(), image.getHeight(), image.getContentWidth(),
+                            image.getContentHeight(), image.getPaddingLeft(), image.getPaddingTop()};
+        for (int dimension : dimensions) {
+            hash = (hash ^ dimension) * HASH_PRIME;
+        }
+        int[] pixels = image.getContentPixels();
+        int contentPixelCount = image.getContentWidth() * image.getContentHeight();
+        for (int i = 0; i < contentPixelCount; i++) {
+            hash = (hash ^ pixels[i]) * HASH_PRIME;
+        }
+        return hash;
     }
 
     /**
@@ -53,16 +81,79 @@ public class ImageProcessor {
      * @return the average brightness of the image, normalized to the range [0, 1]
      */
     public static double calculateImageNormalizedGrayscaleAverage(Image image) {
-        double sum = 0;
-        for (int row = 0; row < image.getHeight(); row++) {
-            for (int col = 0; col < image.getWidth(); col++) {
-                sum += getGreyscaleIntensity(image.getPixel(row, col));
+        long contentPixelCount = (long) image.getContentHeight() * image.getContentWidth();
+        long sum = LumaKernel.PREFERRED.sumLuma(image.getContentPixels(), 0, (int) contentPixelCount);
+        long pixelCount = (long) image.getHeight() * image.getWidth();
+        sum += (pixelCount - contentPixelCount) * WHITE_SCALED_INTENSITY; // The padding is white
+        return normalizeGreyscaleSum(sum, pixelCount);
+    }
+
+    /**
+     * Calculates the normalized average brightness of every square sub-image of the image, for the given
+     * resolution, in a single pass over its pixels, without copying any sub-image and without any memory
+     * beyond the result. Suits an image that is converted in a single resolution. The division into
+     * sub-images is the same as in {@link #divideIntoSubImageRegions(Image, int)}.
+     * Only the pixels of the content are iterated over, the padding's white is added analytically.
+     *
+     * @param image The image, assumed to be with dimensions that are powers of two.
+     * @param resolution The number of sub-images along one row.
+     * @return A 2D array of the normalized average brightness of each sub-image, in the range [0, 1].
+     */
+    public static double[][] calculateSubImagesNormalizedGrayscaleAverages(Image image, int resolution) {
+        int subImageSize = image.getWidth() / resolution;
+        int numRows = image.getHeight() / subImageSize;
+        long pixelsPerSubImage = (long) subImageSize * subImageSize;
+        int paddingLeft = image.getPaddingLeft();
+        int paddingTop = image.getPaddingTop();
+        double[][] brightness = new double[numRows][resolution];
+
+        long[] sums = new long[resolution];
+        for (int row = 0; row < numRows; row++) {
+            Arrays.fill(sums, 0);
+            int firstContentRow = Math.max(row * subImageSize - paddingTop, 0);
+            int endContentRow = Math.min((row + 1) * subImageSize - paddingTop, image.getContentHeight());
+            for (int contentRow = firstContentRow; contentRow < endContentRow; contentRow++) {
+                addRowSegmentSums(image.getContentPixels(), contentRow * image.getContentWidth(),
+                                  image.getContentWidth(), paddingLeft, subImageSize, sums);
+            }
+            long contentRows = Math.max(endContentRow - firstContentRow, 0);
+            for (int col = 0; col < resolution; col++) {
+                long contentPixels = contentRows * getContentOverlap(col * subImageSize, subImageSize,
+                                                                     paddingLeft, image.getContentWidth());
+                long paddingSum = (pixelsPerSubImage - contentPixels) * WHITE_SCALED_INTENSITY;
+                brightness[row][col] = normalizeGreyscaleSum(sums[col] + paddingSum, pixelsPerSubImage);
             }
         }
-        double averageBrightness = sum / (image.getHeight() * image.getWidth());
-        return averageBrightness / MAX_INTENSITY;
+        return brightness;
     }
 
+    /**
+     * Calculates the normalized average brightness of every square sub-image of the image, for the given
+     * resolution, using the image's summed-area table. Each sub-image costs four lookups, so the whole
+     * calculation is O(number of sub-images) and copies no pixels. The division into sub-images is the
+     * same as in {@link #divideIntoSubImageRegions(Image, int)}.
+     *
+     * @param integralImage The summed-area table of the image, assumed to be with dimensions that are
+     *                      powers of two.
+     * @param resolution The number of sub-images along one row.
+     * @return A 2D array of the normalized average brightness of each sub-image, in the range [0, 1].
+     */
+    public static double[][] calculateSubImagesNormalizedGrayscaleAverages(
+            GreyscaleIntegralImage integralImage, int resolution) {
+        int subImageSize = integralImage.getWidth() / resolution;
+        int numRows = integralImage.getHeight() / subImageSize;
+        long pixelsPerSubImage = (long) subImageSize * subImageSize;
+        double[][] brightness = new double[numRows][resolution];
+
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < resolution; col++) {
+                long sum = integralImage.getRegionSum(row * subImageSize, col * subImageSize,
+                                                      subImageSize, subImageSize);
+                brightness[row][col] = normalizeGreyscaleSum(sum, pixelsPerSubImage);
+            }
+        }
+        return brightness;
+    }
 
     /**
      * Divides the original image into square sub-images based on the specified resolution. The resolution
@@ -72,6 +163,8 @@ public class ImageProcessor {
      * facilitates the conversion of image pixels into ASCII characters by segmenting the image into
      * manageable, square sections that can each be represented by a single character based on average
      * brightness or other criteria.
+     * The sub-images are copies of the image's pixels; {@link #divideIntoSubImageRegions(Image, int)}
+     * divides the image the same way without copying any.
      *
      * @param image The source image to be divided into sub-images. This image is assumed to be with
      *              dimensions that are powers of two.
@@ -80,43 +173,151 @@ public class ImageProcessor {
      * @return A 2D array of Image objects, each representing a square sub-image of the original image.
      */
     public static Image[][] divideIntoSubImages(Image image, int resolution) {
+        ImageRegion[][] regions = divideIntoSubImageRegions(image, resolution);
+        Image[][] subImages = new Image[regions.length][];
+        for (int row = 0; row < regions.length; row++) {
+            subImages[row] = new Image[regions[row].length];
+            for (int col = 0; col < regions[row].length; col++) {
+                subImages[row][col] = regions[row][col].toImage();
+            }
+        }
+        return subImages;
+    }
+
+    /**
+     * Divides the image into square sub-images like {@link #divideIntoSubImages(Image, int)}, but as views of
+     * the image, so no pixels are copied.
+     *
+     * @param image The source image to be divided into sub-images. This image is assumed to be with
+     *              dimensions that are powers of two.
+     * @param resolution The number of sub-images to be created along one row, defining the size of each
+     *                   sub-image.
+     * @return A 2D array of ImageRegion objects, each representing a square sub-image of the original image.
+     */
+    public static ImageRegion[][] divideIntoSubImageRegions(Image image, int resolution) {
         int subImageSize = image.getWidth() / resolution;
         int numRows = image.getHeight() / subImageSize;
-        Image[][] subImages = new Image[numRows][resolution];
+        ImageRegion[][] subImages = new ImageRegion[numRows][resolution];
 
         for (int row = 0; row < numRows; row++) {
             for (int col = 0; col < resolution; col++) {
-                Color[][] subImagePixels = new Color[subImageSize][subImageSize];
-                for (int subRow = 0; subRow < subImageSize; subRow++) {
-                    for (int subCol = 0; subCol < subImageSize; subCol++) {
-                        int originalRow = row * subImageSize + subRow;
-                        int originalCol = col * subImageSize + subCol;
-                        subImagePixels[subRow][subCol] = image.getPixel(originalRow, originalCol);
-                    }
-                }
-                subImages[row][col] = new Image(subImagePixels, subImageSize, subImageSize);
+                subImages[row][col] = new ImageRegion(image, row * subImageSize, col * subImageSize,
+                                                      subImageSize, subImageSize);
             }
         }
 
         return subImages;
     }
 
-    /*
-     * Determines whether a specific pixel location should be considered padding.
-     * Padding pixels are added to adjust the image dimensions to powers of two.
+    /**
+     * Calculates the average brightness of a region of an image, normalized to the range [0, 1].
+     * Only the pixels of the image's content are read, the padding's white is added analytically.
      *
-     * @param row The row index of the pixel.
-     * @param paddingY The padding applied vertically.
-     * @param col The column index of the pixel.
-     * @param paddingX The padding applied horizontally.
-     * @param width The original width of the image before padding.
-     * @param height The original height of the image before padding.
-     * @return true if the pixel is part of the padding; false otherwise.
+     * @param region the region to calculate the average brightness of.
+     * @return the average brightness of the region, normalized to the range [0, 1].
      */
-    private static boolean isPadPixel(int row, int paddingY, int col, int paddingX, int width, int height) {
-        return row < paddingY || row >= paddingY + height || col < paddingX || col >= paddingX + width;
+    public static double calculateRegionNormalizedGrayscaleAverage(ImageRegion region) {
+        Image image = region.getImage();
+        int firstContentRow = Math.max(region.getRow() - image.getPaddingTop(), 0);
+        int endContentRow = Math.min(region.getRow() + region.getHeight() - image.getPaddingTop(),
+                                     image.getContentHeight());
+        int firstContentCol = Math.max(region.getCol() - image.getPaddingLeft(), 0);
+        int endContentCol = Math.min(region.getCol() + region.getWidth() - image.getPaddingLeft(),
+                                     image.getContentWidth());
+
+        long sum = 0;
+        if (endContentCol > firstContentCol) {
+            int[] pixels = image.getContentPixels();
+            for (int contentRow = firstContentRow; contentRow < endContentRow; contentRow++) {
+                int rowStart = contentRow * image.getContentWidth();
+                sum += LumaKernel.PREFERRED.sumLuma(pixels, rowStart + firstContentCol,
+                                                    endContentCol - firstContentCol);
+            }
+        }
+        long pixelCount = (long) region.getHeight() * region.getWidth();
+        long contentPixelCount = (long) Math.max(endContentRow - firstContentRow, 0) *
+                                 Math.max(endContentCol - firstContentCol, 0);
+        sum += (pixelCount - contentPixelCount) * WHITE_SCALED_INTENSITY; // The padding is white
+        return normalizeGreyscaleSum(sum, pixelCount);
     }
 
+    /**
+     * Calculates the normalized average brightness of each region in a grid of regions, such as the
+     * sub-images returned by {@link #divideIntoSubImageRegions(Image, int)}.
+     *
+     * @param regions the grid of regions.
+     * @return A 2D array of the normalized average brightness of each region, in the range [0, 1].
+     */
+    public static double[][] calculateRegionsNormalizedGrayscaleAverages(ImageRegion[][] regions) {
+        double[][] brightness = new double[regions.length][];
+        for (int row = 0; row < regions.length; row++) {
+            brightness[row] = new double[regions[row].length];
+            for (int col = 0; col < regions[row].length; col++) {
+                brightness[row][col] = calculateRegionNormalizedGrayscaleAverage(regions[row][col]);
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * Calculates the normalized average brightness of one row of square sub-images of a padded image, from
+     * the strip of original pixels that the row covers (see {@link ImageStripReader#readStrip(int, int)}).
+     * The pixels of the sub-images that are not in the strip are white padding, and their brightness is
+     * added analytically instead of being iterated over.
+     *
+     * @param strip The original pixels the row of sub-images covers, or null if it covers only padding.
+     * @param paddingX The number of padding columns on the left of the original pixels.
+     * @param subImageSize The size of each square sub-image in pixels.
+     * @param resolution The number of sub-images along the row.
+     * @return The normalized average brightness of each sub-image in the row, in the range [0, 1].
+     */
+    public static double[] calculateStripSubImagesNormalizedGrayscaleAverages(Image strip, int paddingX,
+                                                                              int subImageSize,
+                                                                              int resolution) {
+        long[] sums = new long[resolution];
+        long[] originalPixelCounts = new long[resolution];
+        if (strip != null) {
+            for (int row = 0; row < strip.getHeight(); row++) {
+                addRowSegmentSums(strip.getContentPixels(), row * strip.getWidth(), strip.getWidth(),
+                                  paddingX, subImageSize, sums);
+            }
+            for (int col = 0; col < strip.getWidth(); col++) {
+                originalPixelCounts[(col + paddingX) / subImageSize] += strip.getHeight();
+            }
+        }
+
+        long pixelsPerSubImage = (long) subImageSize * subImageSize;
+        double[] brightness = new double[resolution];
+        for (int col = 0; col < resolution; col++) {
+            long paddingSum = (pixelsPerSubImage - originalPixelCounts[col]) * WHITE_SCALED_INTENSITY;
+            brightness[col] = normalizeGreyscaleSum(sums[col] + paddingSum, pixelsPerSubImage);
+        }
+        return brightness;
+    }
+
+    /*
+     * Adds the intensity sum of a row of content pixels to the sums of the sub-images it crosses. Each
+     * sub-image's segment of the row is summed by the luma kernel in a single call.
+     */
+    private static void addRowSegmentSums(int[] pixels, int rowStart, int rowWidth, int paddingLeft,
+                                          int subImageSize, long[] sums) {
+        int contentCol = 0;
+        while (contentCol < rowWidth) {
+            int subImageCol = (contentCol + paddingLeft) / subImageSize;
+            int segmentEnd = Math.min((subImageCol + 1) * subImageSize - paddingLeft, rowWidth);
+            sums[subImageCol] += LumaKernel.PREFERRED.sumLuma(pixels, rowStart + contentCol,
+                                                              segmentEnd - contentCol);
+            contentCol = segmentEnd;
+        }
+    }
+
+    /*
+     * Returns the length of the overlap of a range of rows or columns with the range of the content.
+     */
+    private static int getContentOverlap(int start, int length, int contentStart, int contentLength) {
+        int overlapEnd = Math.min(start + length, contentStart + contentLength);
+        return Math.max(overlapEnd - Math.max(start, contentStart), 0);
+    }
 
     /*
      * Checks if a given integer is a power of two.
@@ -135,7 +336,7 @@ public class ImageProcessor {
      * @param n The number for which to find the closest power of two.
      * @return The next power of two greater than or equal to n.
      */
-    private static int getNextPowerOfTwo(int n) {
+    static int getNextPowerOfTwo(int n) {
         if (isPowerOfTwo(n)) {
             return n;
         }
@@ -147,16 +348,28 @@ public class ImageProcessor {
     }
 
     /*
-     * Calculates the greyscale intensity of a color using weighted averages.
+     * Calculates the greyscale intensity of a packed RGB pixel using weighted averages.
      * This method is used for converting colored pixels to grayscale by considering
-     * the luminance of each color component.
+     * the luminance of each color component, without creating a Color object.
+     * The intensity is returned in fixed point, scaled by GREYSCALE_SCALE, so sums of it are exact.
      *
-     * @param color The color to convert to grayscale intensity.
-     * @return The grayscale intensity of the color.
+     * @param rgb The packed (A)RGB value to convert to grayscale intensity.
+     * @return The grayscale intensity of the color, scaled by GREYSCALE_SCALE.
+     */
+    static int getScaledGreyscaleIntensity(int rgb) {
+        int red = (rgb >> RED_SHIFT) & CHANNEL_MASK;
+        int green = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+        int blue = rgb & CHANNEL_MASK;
+        return red * RED_WEIGHT_TO_GREYSCALE + green * GREEN_WEIGHT_TO_GREYSCALE +
+                blue * BLUE_WEIGHT_TO_GREYSCALE;
+    }
+
+    /*
+     * Converts a sum of fixed point greyscale intensities over the given number of pixels to their
+     * average brightness, normalized to the range [0, 1].
      */
-    private static double getGreyscaleIntensity(Color color) {
-        return (color.getRed() * RED_WEIGHT_TO_GREYSCALE + color.getGreen() * GREEN_WEIGHT_TO_GREYSCALE +
-                color.getBlue() * BLUE_WEIGHT_TO_GREYSCALE);
+    static double normalizeGreyscaleSum(long scaledSum, long pixelCount) {
+        return (double) scaledSum / ((double) pixelCount * GREYSCALE_SCALE * MAX_INTENSITY);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package image;
+
+/**
+ * A rectangular region of an image, such as one of its sub-images. The region is a view: it holds a
+ * reference to the image and the region's origin and size, and reads the image's pixels, so creating a
+ * region copies no pixels.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ImageRegion {
+    private final Image image;
+    private final int row; // The top row of the region in the image
+    private final int col; // The left column of the region in the image
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructs a region of an image.
+     *
+     * @param image the image the region is in.
+     * @param row the top row of the region in the image.
+     * @param col the left column of the region in the image.
+     * @param width the width of the region in pixels.
+     * @param height the height of the region in pixels.
+     */
+    public ImageRegion(Image image, int row, int col, int width, int height) {
+        this.image = image;
+        this.row = row;
+        this.col = col;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Gets the image the region is in.
+     *
+     * @return the image of the region.
+     */
+    public Image getImage() {
+        return image;
+    }
+
+    /**
+     * Gets the top row of the region in the image.
+     *
+     * @return the top row of the region.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Gets the left column of the region in the image.
+     *
+     * @return the left column of the region.
+     */
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * Gets the width of the region in pixels.
+     *
+     * @return the width of the region.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the region in pixels.
+     *
+     * @return the height of the region.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Retrieves the packed ARGB value of a pixel of the region.
+     *
+     * @param x the row of the pixel in the region.
+     * @param y the column of the pixel in the region.
+     * @return the packed ARGB value of the specified pixel.
+     */
+    public int getPixelRGB(int x, int y) {
+        return image.getPixelRGB(row + x, col + y);
+    }
+
+    /**
+     * Copies the pixels of the region into an image of its own.
+     *
+     * @return a new image of the region's size, with the region's pixels.
+     */
+    public Image toImage() {
+        int[] pixels = new int[width * height];
+        for (int x = 0; x < height; x++) {
+            for (int y = 0; y < width; y++) {
+                pixels[x * width + y] = getPixelRGB(x, y);
+            }
+        }
+        return new Image(pixels, width, height);
+    }
+}
@@ -0,0 +1,115 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads an image file one horizontal strip at a time, using the source regions of an {@link ImageReader},
+ * so the whole image is never decoded into memory at once. The strips are described in the coordinates
+ * of the image padded to powers of two, exactly as {@link ImageProcessor#padImage(Image)} pads it, but
+ * only the original pixels are ever read.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ImageStripReader implements Closeable {
+    private final ImageInputStream inputStream;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int paddedWidth;
+    private final int paddedHeight;
+
+    /**
+     * Opens an image file for reading in strips. Only the header of the file is read.
+     *
+     * @param filename the path to the image file to be read.
+     * @throws IOException if the file can't be read, or no reader supports its format.
+     */
+    public ImageStripReader(String filename) throws IOException {
+        inputStream = ImageIO.createImageInputStream(new File(filename));
+        if (inputStream == null) {
+            throw new IOException("Can't open image file: " + filename);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+        if (!readers.hasNext()) {
+            inputStream.close();
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        reader = readers.next();
+        reader.setInput(inputStream, false, true); // Strips are read out of order, metadata is not needed
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        paddedWidth = ImageProcessor.getNextPowerOfTwo(width);
+        paddedHeight = ImageProcessor.getNextPowerOfTwo(height);
+    }
+
+    /**
+     * Gets the width of the padded image in pixels.
+     *
+     * @return the padded width, the closest power of two to the image width.
+     */
+    public int getPaddedWidth() {
+        return paddedWidth;
+    }
+
+    /**
+     * Gets the height of the padded image in pixels.
+     *
+     * @return the padded height, the closest power of two to the image height.
+     */
+    public int getPaddedHeight() {
+        return paddedHeight;
+    }
+
+    /**
+     * Gets the number of white padding columns on the left of the original pixels.
+     *
+     * @return the horizontal padding.
+     */
+    public int getPaddingX() {
+        return (paddedWidth - width) / 2;
+    }
+
+    /**
+     * Reads the original pixels in a range of rows of the padded image. Rows of the range that are padding
+     * are not part of the returned strip.
+     *
+     * @param firstPaddedRow the first row of the range, in the padded image.
+     * @param rowCount the number of rows in the range.
+     * @return the original pixels of the range, as wide as the original image, or null if the whole range
+     *         is padding.
+     * @throws IOException if an error occurs during image reading.
+     */
+    public Image readStrip(int firstPaddedRow, int rowCount) throws IOException {
+        int paddingY = (paddedHeight - height) / 2;
+        int firstRow = Math.max(firstPaddedRow - paddingY, 0);
+        int endRow = Math.min(firstPaddedRow + rowCount - paddingY, height);
+        if (firstRow >= endRow) {
+            return null;
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, firstRow, width, endRow - firstRow));
+        BufferedImage strip = reader.read(0, param);
+        int stripHeight = strip.getHeight();
+        return new Image(strip.getRGB(0, 0, width, stripHeight, null, 0, width), width, stripHeight);
+    }
+
+    /**
+     * Releases the reader and closes the file.
+     *
+     * @throws IOException if an error occurs while closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        inputStream.close();
+    }
+}
@@ -0,0 +1,53 @@
+package image;
+
+/**
+ * Converts rows of packed RGB pixels to their fixed point greyscale intensity (luma, see
+ * {@link ImageProcessor#GREYSCALE_SCALE}), either into a plane of intensities or into their sum.
+ * All the kernels compute in integers with the same weights, so they give exactly the same results.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+interface LumaKernel {
+    /**
+     * The fastest kernel on this platform: the SIMD kernel if it was compiled (it is in the separate source
+     * root vector_kernel) and the jdk.incubator.vector module is present at runtime (when running with
+     * --add-modules jdk.incubator.vector), and the scalar kernel otherwise.
+     */
+    LumaKernel PREFERRED = selectPreferredKernel();
+
+    /**
+     * Converts a row segment of packed RGB pixels to their greyscale intensities.
+     *
+     * @param rgb The packed RGB pixels.
+     * @param offset The index of the first pixel of the segment.
+     * @param length The number of pixels in the segment.
+     * @param luma The array to write the intensities to.
+     * @param lumaOffset The index to write the intensity of the first pixel at.
+     */
+    void toLuma(int[] rgb, int offset, int length, int[] luma, int lumaOffset);
+
+    /**
+     * Sums the greyscale intensities of a row segment of packed RGB pixels.
+     *
+     * @param rgb The packed RGB pixels.
+     * @param offset The index of the first pixel of the segment.
+     * @param length The number of pixels in the segment.
+     * @return The sum of the fixed point greyscale intensities of the pixels.
+     */
+    long sumLuma(int[] rgb, int offset, int length);
+
+    /*
+     * Loads the SIMD kernel reflectively, so this interface can be compiled and loaded without the incubator
+     * module, and falls back to the scalar kernel if the module or the kernel's class is missing.
+     */
+    private static LumaKernel selectPreferredKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (LumaKernel) Class.forName("image.VectorLumaKernel").getDeclaredConstructor()
+                                         .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall back to the scalar kernel
+            }
+        }
+        return new ScalarLumaKernel();
+    }
+}
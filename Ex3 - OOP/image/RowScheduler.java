@@ -0,0 +1,28 @@
+package image;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Schedules work that is split by rows, such as the rows of a brightness grid, either sequentially or
+ * in parallel. The work on different rows must be independent, so that the result does not depend on
+ * the order, or the threads, in which the rows are processed.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public interface RowScheduler {
+    /**
+     * A scheduler that processes the rows one after the other, in the calling thread.
+     */
+    RowScheduler SEQUENTIAL = (rows, rowAction) -> {
+        for (int row = 0; row < rows; row++) {
+            rowAction.accept(row);
+        }
+    };
+
+    /**
+     * Runs the given action once for every row in [0, rows), and returns when all of them are done.
+     *
+     * @param rows The number of rows.
+     * @param rowAction The action to run on each row, gets the row index.
+     */
+    void forEachRow(int rows, IntConsumer rowAction);
+}
@@ -0,0 +1,23 @@
+package image;
+
+/**
+ * A luma kernel that converts one pixel at a time. Used when the Vector API is not available.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+class ScalarLumaKernel implements LumaKernel {
+    @Override
+    public void toLuma(int[] rgb, int offset, int length, int[] luma, int lumaOffset) {
+        for (int i = 0; i < length; i++) {
+            luma[lumaOffset + i] = ImageProcessor.getScaledGreyscaleIntensity(rgb[offset + i]);
+        }
+    }
+
+    @Override
+    public long sumLuma(int[] rgb, int offset, int length) {
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += ImageProcessor.getScaledGreyscaleIntensity(rgb[offset + i]);
+        }
+        return sum;
+    }
+}
@@ -2,6 +2,7 @@ package image_char_matching;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 /**
  * Inspired by, and partly copied from
@@ -15,11 +16,15 @@ import java.awt.image.BufferedImage;
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    /**
+     * The name of the font the characters are rendered in
+     */
+    static final String FONT_NAME = "Courier New";
     /**
      * The default resolution of the image in pixels
      */
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    private static final int MAX_ATLAS_COLUMNS = 64;
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -40,6 +45,57 @@ public class CharConverter {
         return matrix;
     }
 
+    /**
+     * Renders the given characters to square black&white images, exactly like
+     * {@link #convertToBoolArray(char)} does for each of them, but in a single render pass: all of them are
+     * drawn into one atlas image with one font and one graphics context, each clipped to its own cell, and
+     * the atlas is read back in bulk from its data buffer.
+     *
+     * @param chars The characters to render.
+     * @return The 2D boolean array of each character, in the order of the given characters.
+     */
+    public static boolean[][][] convertToBoolArrays(char[] chars) {
+        int columns = Math.max(1, Math.min(chars.length, MAX_ATLAS_COLUMNS));
+        int rows = (chars.length + columns - 1) / columns;
+        int atlasWidth = columns * DEFAULT_PIXEL_RESOLUTION;
+        BufferedImage atlas = getAtlasBufferedImage(chars, FONT_NAME, DEFAULT_PIXEL_RESOLUTION, columns,
+                                                    rows);
+        int[] atlasPixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+
+        boolean[][][] matrices =
+                new boolean[chars.length][DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
+        for (int i = 0; i < chars.length; i++) {
+            int cellStart = (i / columns) * DEFAULT_PIXEL_RESOLUTION * atlasWidth +
+                            (i % columns) * DEFAULT_PIXEL_RESOLUTION;
+            for (int y = 0; y < DEFAULT_PIXEL_RESOLUTION; y++) {
+                int rowStart = cellStart + y * atlasWidth;
+                for (int x = 0; x < DEFAULT_PIXEL_RESOLUTION; x++) {
+                    matrices[i][y][x] = atlasPixels[rowStart + x] == 0; //is the color black
+                }
+            }
+        }
+        return matrices;
+    }
+
+    private static BufferedImage getAtlasBufferedImage(char[] chars, String fontName, int pixelsPerRow,
+                                                       int columns, int rows) {
+        Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
+        BufferedImage atlas = new BufferedImage(columns * pixelsPerRow, rows * pixelsPerRow,
+                                                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        g.setFont(font);
+        int xOffset = (int)Math.round(pixelsPerRow *X_OFFSET_FACTOR);
+        int yOffset = (int)Math.round(pixelsPerRow *Y_OFFSET_FACTOR);
+        for (int i = 0; i < chars.length; i++) {
+            int cellX = (i % columns) * pixelsPerRow;
+            int cellY = (i / columns) * pixelsPerRow;
+            g.setClip(cellX, cellY, pixelsPerRow, pixelsPerRow); // As if each char had its own image
+            g.drawString(Character.toString(chars[i]), cellX + xOffset, cellY + yOffset);
+        }
+        g.dispose();
+        return atlas;
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
@@ -0,0 +1,254 @@
+package image_char_matching;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent cache of the brightness of rendered glyphs, shared by all the matchers of the program and by
+ * later runs of it. Rasterizing a glyph with AWT is slow (especially the first one in a JVM), so the number
+ * of black pixels of every glyph that was ever rasterized is kept in a file, which is memory-mapped when the
+ * cache is first used, and known glyphs are never rasterized again.
+ * <p>
+ * The file is versioned, and keyed by the font name, the pixel resolution and a fingerprint of the JDK's
+ * font rendering (its vendor and version, the platform, and the font AWT actually resolved), so a change in
+ * any of them starts a fresh cache instead of returning stale brightness. Since the file may be written by
+ * another process, or damaged, every entry also holds a check of its character and count, and an entry that
+ * fails it, or counts more pixels than a glyph has, is rasterized again instead of trusted. If the file can't
+ * be used for any reason, the cache is kept in memory only, for the current run.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class GlyphBrightnessCache {
+    private static final int MAGIC = 0x47425243; // "GBRC"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 16; // magic, version and the 64 bit key hash
+    private static final int KEY_HASH_OFFSET = 8;
+    private static final int CHAR_COUNT = Character.MAX_VALUE + 1;
+    private static final int ENTRY_SIZE = Integer.BYTES;
+    private static final int FILE_SIZE = HEADER_SIZE + CHAR_COUNT * ENTRY_SIZE;
+    private static final int UNKNOWN_GLYPH = 0; // Entries hold the black pixels count plus one
+    private static final int COUNT_BITS = 16; // The low bits of an entry, the high bits hold its check
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+    private static final int INVALID_ENTRY = -1;
+    private static final String CACHE_FILE_NAME_FORMAT = "ascii_art_glyph_brightness_v%d_%016x.bin";
+    private static final String TEMP_DIR_PROPERTY = "java.io.tmpdir";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static GlyphBrightnessCache instance;
+
+    private final ByteBuffer entries; // The header followed by one entry per char
+    private final long keyHash; // Salts the checks of the entries, so entries of other keys fail them
+    private final int pixelsPerGlyph;
+    private final LongAdder hits = new LongAdder(); // Requested glyphs that were in the cache
+    private final LongAdder misses = new LongAdder(); // Requested glyphs that had to be rasterized
+
+    /*
+     * Constructs the cache of the font and resolution of CharConverter, mapping its file if possible.
+     */
+    private GlyphBrightnessCache() {
+        this.pixelsPerGlyph = CharConverter.DEFAULT_PIXEL_RESOLUTION * CharConverter.DEFAULT_PIXEL_RESOLUTION;
+        this.keyHash = hashKey(CharConverter.FONT_NAME + '|' + CharConverter.DEFAULT_PIXEL_RESOLUTION + '|' +
+                               getFontRenderingFingerprint());
+        ByteBuffer buffer;
+        try {
+            buffer = mapCacheFile(keyHash);
+        } catch (IOException | RuntimeException e) {
+            // The cache is only an optimization, keep it in memory for this run
+            buffer = ByteBuffer.allocate(FILE_SIZE);
+            writeHeader(buffer, keyHash);
+        }
+        this.entries = buffer;
+    }
+
+    /**
+     * Returns the single instance of the cache, creating it on first use.
+     *
+     * @return the glyph brightness cache.
+     */
+    public static synchronized GlyphBrightnessCache getInstance() {
+        if (instance == null) {
+            instance = new GlyphBrightnessCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the brightness of a character (the average brightness of its pixels), rasterizing it only if it
+     * was never rasterized before with the same font, resolution and font rendering.
+     *
+     * @param c The character to get the brightness of.
+     * @return The brightness of the character, in the range [0, 1].
+     */
+    public double getBrightness(char c) {
+        int entryOffset = HEADER_SIZE + c * ENTRY_SIZE;
+        int blackPixels = decodeEntry(c, entries.getInt(entryOffset));
+        if (blackPixels == INVALID_ENTRY) {
+            misses.increment();
+            blackPixels = countBlackPixels(CharConverter.convertToBoolArray(c));
+            // Every process writes the same value, so races are harmless
+            entries.putInt(entryOffset, encodeEntry(c, blackPixels));
+        } else {
+            hits.increment();
+        }
+        return (double) blackPixels / pixelsPerGlyph;
+    }
+
+    /**
+     * Makes sure the brightness of all the given characters is cached, rasterizing all the ones that are not
+     * in a single render pass, so the following calls to {@link #getBrightness(char)} are lookups.
+     *
+     * @param chars The characters to cache the brightness of.
+     */
+    public void preload(char[] chars) {
+        char[] unknownChars = new char[chars.length];
+        int unknownCount = 0;
+        for (char c : chars) {
+            if (decodeEntry(c, entries.getInt(HEADER_SIZE + c * ENTRY_SIZE)) == INVALID_ENTRY) {
+                unknownChars[unknownCount++] = c;
+            }
+        }
+        hits.add(chars.length - unknownCount);
+        misses.add(unknownCount);
+        if (unknownCount == 0) {
+            return;
+        }
+
+        unknownChars = Arrays.copyOf(unknownChars, unknownCount);
+        boolean[][][] blackAndWhiteCharImages = CharConverter.convertToBoolArrays(unknownChars);
+        for (int i = 0; i < unknownCount; i++) {
+            entries.putInt(HEADER_SIZE + unknownChars[i] * ENTRY_SIZE,
+                           encodeEntry(unknownChars[i], countBlackPixels(blackAndWhiteCharImages[i])));
+        }
+    }
+
+    /**
+     * Returns the number of glyphs whose brightness was requested and found in the cache so far.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of glyphs whose brightness was requested and had to be rasterized so far.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /*
+     * Encodes the black pixels count of a glyph as its entry: the count plus one in the low bits, and its
+     * check in the high bits.
+     */
+    private int encodeEntry(char c, int blackPixels) {
+        int count = blackPixels + 1;
+        return getEntryCheck(c, count) << COUNT_BITS | count;
+    }
+
+    /*
+     * Returns the black pixels count of a glyph's entry, or INVALID_ENTRY if the glyph is unknown, or the
+     * entry fails its check or counts more pixels than a glyph has.
+     */
+    private int decodeEntry(char c, int entry) {
+        int count = entry & COUNT_MASK;
+        if (count == UNKNOWN_GLYPH || count > pixelsPerGlyph + 1 ||
+            entry >>> COUNT_BITS != getEntryCheck(c, count)) {
+            return INVALID_ENTRY;
+        }
+        return count - 1;
+    }
+
+    /*
+     * Returns the check of an entry, an FNV-1a hash of the key, the character and the count, folded to the
+     * bits above the count. All the bits are folded, since the high bits of the product alone barely change
+     * with the low bits of the count.
+     */
+    private int getEntryCheck(char c, int count) {
+        long hash = (keyHash ^ c) * FNV_PRIME;
+        hash = (hash ^ count) * FNV_PRIME;
+        hash ^= hash >>> Integer.SIZE;
+        hash ^= hash >>> COUNT_BITS;
+        return (int) hash & COUNT_MASK;
+    }
+
+    /*
+     * Maps the cache file of the given key, starting it over if it is missing, or was written by another
+     * format version or key.
+     */
+    private static ByteBuffer mapCacheFile(long keyHash) throws IOException {
+        Path path = Paths.get(System.getProperty(TEMP_DIR_PROPERTY),
+                              String.format(CACHE_FILE_NAME_FORMAT, FORMAT_VERSION, keyHash));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            boolean hadValidSize = channel.size() == FILE_SIZE;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (!hadValidSize || !hasHeader(buffer, keyHash)) {
+                for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += ENTRY_SIZE) {
+                    buffer.putInt(offset, UNKNOWN_GLYPH);
+                }
+                writeHeader(buffer, keyHash);
+            }
+            return buffer; // The mapping stays valid after the channel is closed
+        }
+    }
+
+    private static boolean hasHeader(ByteBuffer buffer, long keyHash) {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(Integer.BYTES) == FORMAT_VERSION &&
+               buffer.getLong(KEY_HASH_OFFSET) == keyHash;
+    }
+
+    private static void writeHeader(ByteBuffer buffer, long keyHash) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, FORMAT_VERSION);
+        buffer.putLong(KEY_HASH_OFFSET, keyHash);
+    }
+
+    /*
+     * Describes everything, other than the font name and resolution, that might change how glyphs are
+     * rasterized.
+     */
+    private static String getFontRenderingFingerprint() {
+        Font font = new Font(CharConverter.FONT_NAME, Font.PLAIN, CharConverter.DEFAULT_PIXEL_RESOLUTION);
+        return System.getProperty("java.vendor") + '|' + System.getProperty("java.runtime.version") + '|' +
+               System.getProperty("os.name") + '|' + System.getProperty("os.arch") + '|' +
+               font.getFontName() + '|' + font.getFamily();
+    }
+
+    /*
+     * Hashes the cache key with 64 bit FNV-1a, used both in the file name and in its header.
+     */
+    private static long hashKey(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /*
+     * Counts the black pixels of a rasterized glyph.
+     */
+    private static int countBlackPixels(boolean[][] blackAndWhiteCharImage) {
+        int count = 0;
+        for (boolean[] row : blackAndWhiteCharImage) {
+            for (boolean isBlack : row) {
+                if (isBlack) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
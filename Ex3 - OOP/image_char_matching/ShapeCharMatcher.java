@@ -0,0 +1,240 @@
+package image_char_matching;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Matches sub-images to characters by their shape, rather than by their brightness alone.
+ * Every glyph of {@link CharConverter} is a 16x16 black and white bitmap, whose drawn pixels are packed into
+ * {@value #WORDS_PER_SHAPE} longs of {@value #ROWS_PER_WORD} rows each (bit x of row y is bit
+ * (y % 4) * 16 + x of word y / 4). A sub-image is thresholded at its own mean brightness into the same
+ * layout, so its shape is kept however dark or bright it is overall, and matched to the glyph with the fewest
+ * different pixels, counted by XOR and {@link Long#bitCount(long)} one word at a time, so a match allocates
+ * nothing and costs a few operations per glyph.
+ * <p>
+ * The glyphs are rasterized lazily, in a single render pass, when the characters are first matched after
+ * they changed, so a matcher that is kept up to date with a character set costs nothing until it is used.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ShapeCharMatcher {
+    /**
+     * The number of pixels along each side of a glyph and of a thresholded sub-image.
+     */
+    public static final int SHAPE_SIZE = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+    /**
+     * The number of longs a glyph or a thresholded sub-image is packed into.
+     */
+    public static final int WORDS_PER_SHAPE = SHAPE_SIZE * SHAPE_SIZE / Long.SIZE;
+    /**
+     * The number of pixel rows packed into each long.
+     */
+    public static final int ROWS_PER_WORD = Long.SIZE / SHAPE_SIZE;
+    /**
+     * The brightness below which a pixel of a flat sub-image, whose pixels are all equally bright, is black.
+     */
+    public static final double BLACK_THRESHOLD = 0.5;
+
+    private final TreeSet<Character> chars = new TreeSet<>(); // Matched in ascending order, for ties
+    private final HashMap<Character, long[]> glyphShapes = new HashMap<>(); // Rasterized so far
+    // The glyphs of the current characters, rebuilt lazily and reset to null whenever the characters change
+    private volatile Glyphs glyphs;
+
+    /*
+     * The packed glyphs of the characters, in ascending order of the characters.
+     */
+    private static final class Glyphs {
+        private final char[] chars;
+        private final long[] shapes; // WORDS_PER_SHAPE words per character
+
+        private Glyphs(char[] chars, long[] shapes) {
+            this.chars = chars;
+            this.shapes = shapes;
+        }
+    }
+
+    /**
+     * Constructs a ShapeCharMatcher of the given characters. Their glyphs are not rasterized yet.
+     *
+     * @param chars The characters to match with.
+     */
+    public ShapeCharMatcher(char[] chars) {
+        for (char c : chars) {
+            this.chars.add(c);
+        }
+    }
+
+    /**
+     * Adds a character to the matcher.
+     *
+     * @param c The character to add.
+     */
+    public void addChar(char c) {
+        if (chars.add(c)) {
+            glyphs = null;
+        }
+    }
+
+    /**
+     * Removes a character from the matcher.
+     *
+     * @param c The character to remove.
+     */
+    public void removeChar(char c) {
+        if (chars.remove(c)) {
+            glyphs = null;
+        }
+    }
+
+    /**
+     * Finds the character whose glyph differs from a thresholded sub-image in the fewest pixels.
+     * This function is assumed to be called when the characters set is not empty. It is safe to call it
+     * from several threads, as long as no character is added or removed meanwhile.
+     *
+     * @param word0 Rows 0-3 of the sub-image, packed as described in {@link ShapeCharMatcher}.
+     * @param word1 Rows 4-7 of the sub-image.
+     * @param word2 Rows 8-11 of the sub-image.
+     * @param word3 Rows 12-15 of the sub-image.
+     * @return The character of the nearest glyph, or the one with the smallest ASCII value if more than one
+     * glyph is as near.
+     */
+    public char getCharByShape(long word0, long word1, long word2, long word3) {
+        Glyphs current = glyphs;
+        if (current == null) {
+            current = buildGlyphs();
+        }
+        long[] shapes = current.shapes;
+        int nearestGlyph = 0;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int glyph = 0, word = 0; glyph < current.chars.length; glyph++, word += WORDS_PER_SHAPE) {
+            int distance = Long.bitCount(shapes[word] ^ word0) + Long.bitCount(shapes[word + 1] ^ word1) +
+                           Long.bitCount(shapes[word + 2] ^ word2) + Long.bitCount(shapes[word + 3] ^ word3);
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearestGlyph = glyph;
+            }
+        }
+        return current.chars[nearestGlyph];
+    }
+
+    /**
+     * Returns the brightness to threshold a sub-image at: the mean brightness of its cells, so its pixels are
+     * black or white relative to each other. A flat sub-image, whose cells are all equally bright, has no
+     * shape to keep, so it is thresholded at {@value #BLACK_THRESHOLD} and is all black or all white.
+     *
+     * @param cells The normalized brightness of the cells of the image.
+     * @param top The row of the first cell of the sub-image.
+     * @param left The column of the first cell of the sub-image.
+     * @param cellsPerSide The number of cells along each side of the sub-image.
+     * @return The brightness below which a pixel of the sub-image is black.
+     */
+    public static double getThreshold(double[][] cells, int top, int left, int cellsPerSide) {
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int row = top; row < top + cellsPerSide; row++) {
+            double[] cellsRow = cells[row];
+            for (int col = left; col < left + cellsPerSide; col++) {
+                sum += cellsRow[col];
+                min = Math.min(min, cellsRow[col]);
+                max = Math.max(max, cellsRow[col]);
+            }
+        }
+        return min == max ? BLACK_THRESHOLD : sum / (cellsPerSide * cellsPerSide);
+    }
+
+    /**
+     * Thresholds one word of a sub-image, {@value #ROWS_PER_WORD} rows of {@value #SHAPE_SIZE} pixels, from a
+     * grid of brightness cells. A sub-image may span fewer cells than pixels along each side, in which case
+     * every cell covers several pixels.
+     *
+     * @param cells The normalized brightness of the cells of the image.
+     * @param top The row of the first cell of the sub-image.
+     * @param left The column of the first cell of the sub-image.
+     * @param cellsPerSide The number of cells along each side of the sub-image, a divisor of
+     *                     {@value #SHAPE_SIZE}.
+     * @param word The index of the word, from 0 to {@value #WORDS_PER_SHAPE} - 1.
+     * @param threshold The brightness below which a pixel is black, see
+     *                  {@link #getThreshold(double[][], int, int, int)}.
+     * @return The packed word, in which the pixels darker than the threshold are set.
+     */
+    public static long thresholdWord(double[][] cells, int top, int left, int cellsPerSide, int word,
+                                     double threshold) {
+        int pixelsPerCell = SHAPE_SIZE / cellsPerSide;
+        long cellPixels = (1L << pixelsPerCell) - 1; // The pixels a cell covers in a row
+        long bits = 0;
+        long rowBits = 0;
+        int rowCells = -1;
+        for (int wordRow = 0; wordRow < ROWS_PER_WORD; wordRow++) {
+            int nextRowCells = top + (word * ROWS_PER_WORD + wordRow) / pixelsPerCell;
+            if (nextRowCells != rowCells) { // Rows of pixels in the same row of cells are the same
+                rowCells = nextRowCells;
+                double[] cellsRow = cells[rowCells];
+                rowBits = 0;
+                for (int cell = 0; cell < cellsPerSide; cell++) {
+                    // The sign bit of the difference is set exactly if the cell is darker, without a branch
+                    long isDark = Double.doubleToRawLongBits(cellsRow[left + cell] - threshold) >>> 63;
+                    rowBits |= (cellPixels * isDark) << (cell * pixelsPerCell);
+                }
+            }
+            bits |= rowBits << (wordRow * SHAPE_SIZE);
+        }
+        return bits;
+    }
+
+    /*
+     * Packs the glyphs of the current characters, if they were not packed already by another thread. Glyphs
+     * that were never rasterized are rasterized together in a single render pass.
+     */
+    private synchronized Glyphs buildGlyphs() {
+        Glyphs current = glyphs;
+        if (current != null) {
+            return current;
+        }
+        List<Character> unknownChars = new ArrayList<>();
+        for (char c : chars) {
+            if (!glyphShapes.containsKey(c)) {
+                unknownChars.add(c);
+            }
+        }
+        if (!unknownChars.isEmpty()) {
+            char[] toRasterize = new char[unknownChars.size()];
+            for (int i = 0; i < toRasterize.length; i++) {
+                toRasterize[i] = unknownChars.get(i);
+            }
+            boolean[][][] blackAndWhiteCharImages = CharConverter.convertToBoolArrays(toRasterize);
+            for (int i = 0; i < toRasterize.length; i++) {
+                glyphShapes.put(toRasterize[i], packGlyph(blackAndWhiteCharImages[i]));
+            }
+        }
+
+        char[] currentChars = new char[chars.size()];
+        long[] shapes = new long[currentChars.length * WORDS_PER_SHAPE];
+        int glyph = 0;
+        for (char c : chars) {
+            currentChars[glyph] = c;
+            System.arraycopy(glyphShapes.get(c), 0, shapes, glyph * WORDS_PER_SHAPE, WORDS_PER_SHAPE);
+            glyph++;
+        }
+        current = new Glyphs(currentChars, shapes);
+        glyphs = current;
+        return current;
+    }
+
+    /*
+     * Packs a rasterized glyph into words, in which the pixels the glyph draws are set. CharConverter marks
+     * the pixels it did not draw, the white paper, as true, which is what a glyph's brightness counts.
+     */
+    private static long[] packGlyph(boolean[][] blackAndWhiteCharImage) {
+        long[] shape = new long[WORDS_PER_SHAPE];
+        for (int y = 0; y < SHAPE_SIZE; y++) {
+            for (int x = 0; x < SHAPE_SIZE; x++) {
+                if (!blackAndWhiteCharImage[y][x]) {
+                    shape[y / ROWS_PER_WORD] |= 1L << ((y % ROWS_PER_WORD) * SHAPE_SIZE + x);
+                }
+            }
+        }
+        return shape;
+    }
+}
@@ -1,6 +1,7 @@
 package image_char_matching;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages the mapping of characters to their corresponding brightness levels for ASCII art generation.
@@ -9,12 +10,22 @@ import java.util.*;
  * @author Shir Rashkovits and Yoav Dolev
  */
 public class SubImgCharMatcher {
-    // A tree map that maps normalized brightness levels to sets of characters with the same brightness.
-    private final TreeMap<Double, TreeSet<Character>> normalizedCharMap;
+    // The number of equal brightness buckets over [0, 1] in the lookup table, a power of two so the bucket of
+    // a brightness is computed exactly.
+    private static final int LOOKUP_TABLE_SIZE = 4096;
+    private static final int NO_SINGLE_CHAR = -1; // Marks a bucket that contains a border between chars
+
+    // A tree map that maps un-normalized brightness levels to sets of characters with the same brightness.
+    // Its first and last keys are the min and max brightness the queries are normalized by.
+    private final TreeMap<Double, TreeSet<Character>> brightnessCharMap;
     // A map that maps characters to their brightness levels.
     private final HashMap<Character, Double> charsToBrightness; // un-normalized
-    private Double minBrightness; // un-normalized
-    private Double maxBrightness; // un-normalized
+    // For each brightness bucket, the char every brightness in it is matched to, or NO_SINGLE_CHAR.
+    // Built lazily, and reset to null whenever the characters change.
+    private volatile int[] lookupTable;
+    // Statistics: matches the lookup table couldn't answer, and lookup tables built
+    private final LongAdder treeMapLookups = new LongAdder();
+    private long lookupTableBuilds;
 
 
     /**
@@ -25,22 +36,17 @@ public class SubImgCharMatcher {
      */
     public SubImgCharMatcher(char[] chars) {
         // Initialize data structures
-        this.normalizedCharMap = new TreeMap<>();
+        this.brightnessCharMap = new TreeMap<>();
         this.charsToBrightness = new HashMap<>();
 
-        // Initialize min and max brightness for safe initialization (although we assumed to be initialized
-        // with at least one character)
-        this.minBrightness = Double.MAX_VALUE;
-        this.maxBrightness = Double.MIN_VALUE;
-
         for (char curChar: chars) {
             addChar(curChar);
         }
     }
 
     /**
-     * Adds a character to the matcher with its corresponding brightness level.
-     * Updates the mapping and adjusts normalization if necessary.
+     * Adds a character to the matcher with its corresponding brightness level, in O(log(n)).
+     * The tree map holds un-normalized brightness, so a new min or max needs no re-normalization.
      *
      * @param c The character to add.
      */
@@ -50,21 +56,25 @@ public class SubImgCharMatcher {
         }
         double brightness = getCharBrightness(c);
         charsToBrightness.put(c, brightness);
+        lookupTable = null;
+        addCharacterToTreeMap(c, brightness);
+    }
 
-        if (brightness < minBrightness || brightness > maxBrightness) {
-            // When we get a new min/max, we have to re-normalize each item in the tree map, so we need
-            // to rebuild it
-            minBrightness = Math.min(brightness, minBrightness);
-            maxBrightness = Math.max(brightness, maxBrightness);
-            rebuildTreeMapByHashMap();
-        } else {
-            addCharacterToTreeMap(c, brightness);
+    /**
+     * Adds several characters to the matcher. Characters whose brightness is not known yet are rasterized
+     * together in a single render pass, instead of one at a time.
+     *
+     * @param chars The characters to add.
+     */
+    public void addChars(char[] chars) {
+        GlyphBrightnessCache.getInstance().preload(chars);
+        for (char c : chars) {
+            addChar(c);
         }
     }
 
     /**
-     * Removes a character from the matcher, along with its brightness mapping.
-     * Adjusts the tree map if necessary.
+     * Removes a character from the matcher, along with its brightness mapping, in O(log(n)).
      *
      * @param c The character to remove.
      */
@@ -74,17 +84,8 @@ public class SubImgCharMatcher {
         }
 
         double brightness = charsToBrightness.remove(c); // Returns the previous value associated with key
-        boolean minOrMaxWereUpdated = updateMinOrMaxInRemovalIfNeeded(c, brightness);
-        if (minOrMaxWereUpdated) {
-            rebuildTreeMapByHashMap(); // Rebuild without the removed character
-        } else {
-            removeCharacterFromTreeMap(c, brightness);
-        }
-
-        if (normalizedCharMap.isEmpty()) {
-            this.minBrightness = Double.MAX_VALUE;
-            this.maxBrightness = Double.MIN_VALUE;
-        }
+        lookupTable = null;
+        removeCharacterFromTreeMap(c, brightness);
     }
 
     private boolean doesCharExist(char c) {
@@ -94,56 +95,88 @@ public class SubImgCharMatcher {
     /**
      * Finds the character that best matches a given brightness value.
      * This function assumed to be called when the characters set is not empty.
+     * Most brightness values are answered from a quantized lookup table with a single array access, the
+     * rest (those close to a border between two chars) from the tree map, with the same result.
+     * It is safe to call this method from several threads, as long as no character is added or removed
+     * meanwhile.
      *
      * @param brightness The target brightness value, normalized to the range [0, 1].
      * @return The character that closest matches the specified brightness, or the character with the
      * smallest ASCII value if more than one character has the same brightness.
      */
     public char getCharByImageBrightness(double brightness) {
-        double nearestKey = findNearestBrightnessKey(brightness);
-        return normalizedCharMap.get(nearestKey).first();
+        int[] table = lookupTable;
+        if (table == null) {
+            table = buildLookupTable();
+        }
+        if (brightness >= 0 && brightness <= 1) {
+            int bucket = Math.min((int) (brightness * LOOKUP_TABLE_SIZE), LOOKUP_TABLE_SIZE - 1);
+            int tableChar = table[bucket];
+            if (tableChar != NO_SINGLE_CHAR) {
+                return (char) tableChar;
+            }
+        }
+        treeMapLookups.increment();
+        return findCharInTreeMap(brightness);
     }
 
     /*
-     * This method is used to update the min and max brightness if the removed character was the min or max.
-     * This method assumes the char hasn't been removed from the tree map yet.
-     */
-    private boolean updateMinOrMaxInRemovalIfNeeded(char c, double brightness) {
-        boolean isMin = (brightness == minBrightness);
-        boolean isMax = (brightness == maxBrightness);
-
-        double normalizedBrightness = getNormalizedBrightness(brightness);
-        if (isMin || isMax) { // check if it is the only min/max, and if it is, update the min/max
-            TreeSet<Character> charsWithSameBrightness = normalizedCharMap.get(normalizedBrightness);
-            if (isOnlyCharExistWithSpecifiedBrightness(c, charsWithSameBrightness)) {
-                if (isMin) {
-                    minBrightness = normalizedCharMap.ceilingKey(Double.MIN_VALUE);
-                } else {
-                    maxBrightness = normalizedCharMap.floorKey(Double.MAX_VALUE);
-                }
-            }
-            return true;
-        }
-        return false;
+     * Finds the character that best matches a given normalized brightness value by searching the tree map.
+     * Instead of normalizing every char in the map, the query is un-normalized into the range of the chars.
+     */
+    private char findCharInTreeMap(double brightness) {
+        double nearestKey = findNearestBrightnessKey(getUnNormalizedBrightness(brightness));
+        return brightnessCharMap.get(nearestKey).first();
     }
 
     /*
-     * Checks if the specified character is the only character in the set with the specified brightness.
+     * Builds the lookup table of the current characters, if it was not built already by another thread.
+     * The nearest key only grows with the brightness, so if both ends of a bucket are matched to the same
+     * char, so is every brightness between them.
      */
-    private static boolean isOnlyCharExistWithSpecifiedBrightness(char c,
-                                                                TreeSet<Character> charsWithSameBrightness) {
-        return charsWithSameBrightness != null && charsWithSameBrightness.size() == 1 &&
-                charsWithSameBrightness.contains(c);
+    private synchronized int[] buildLookupTable() {
+        int[] table = lookupTable;
+        if (table != null) {
+            return table;
+        }
+        table = new int[LOOKUP_TABLE_SIZE];
+        char lowerEndChar = findCharInTreeMap(0);
+        for (int bucket = 0; bucket < LOOKUP_TABLE_SIZE; bucket++) {
+            char upperEndChar = findCharInTreeMap((double) (bucket + 1) / LOOKUP_TABLE_SIZE);
+            table[bucket] = lowerEndChar == upperEndChar ? lowerEndChar : NO_SINGLE_CHAR;
+            lowerEndChar = upperEndChar;
+        }
+        lookupTable = table;
+        lookupTableBuilds++;
+        return table;
+    }
+
+    /**
+     * Returns the number of matches so far that the lookup table couldn't answer, because the brightness was
+     * close to a border between two chars, and were searched in the tree map instead.
+     *
+     * @return The number of matches searched in the tree map.
+     */
+    public long getTreeMapLookupCount() {
+        return treeMapLookups.sum();
+    }
+
+    /**
+     * Returns the number of lookup tables built so far, one for each set of characters that was matched with.
+     *
+     * @return The number of lookup tables built.
+     */
+    public synchronized long getLookupTableBuildCount() {
+        return lookupTableBuilds;
     }
 
     /*
      * Adds a character to the tree map.
      */
     private void addCharacterToTreeMap(char c, double brightness) {
-        double normalizedBrightness = getNormalizedBrightness(brightness);
         // If the brightness is already in the map, add the character to the set.
         // Otherwise, create a new set with the character.
-        normalizedCharMap.computeIfAbsent(normalizedBrightness, k -> new TreeSet<>()).add(c);
+        brightnessCharMap.computeIfAbsent(brightness, k -> new TreeSet<>()).add(c);
     }
 
     /*
@@ -151,41 +184,52 @@ public class SubImgCharMatcher {
      * This method assumes that the char has already been removed from the charsToBrightness map.
      */
     private void removeCharacterFromTreeMap(char c, double brightness) {
-        double normalizedBrightness = getNormalizedBrightness(brightness);
-        TreeSet<Character> chars = normalizedCharMap.get(normalizedBrightness);
+        TreeSet<Character> chars = brightnessCharMap.get(brightness);
         if (chars != null) {
             chars.remove(c);
             if (chars.isEmpty()) {
-                normalizedCharMap.remove(normalizedBrightness);
+                brightnessCharMap.remove(brightness);
             }
         }
     }
 
-    /*
-     * Rebuilds the tree map from the unnormalized brightness map.
-     * This method assumes that the charsToBrightness map has been updated, and the chars need to be
-     * in the rebuilt tree map are the ones in the charsToBrightness map.
+    /**
+     * Returns a snapshot of the current characters, mapping each (un-normalized) brightness level to the
+     * character a brightness matched to it gets. Comparing two snapshots tells which levels an edit of the
+     * characters changed.
+     * This function is assumed to be called when the characters set is not empty.
+     *
+     * @return A new map from each brightness level of the characters to its character.
      */
-    private void rebuildTreeMapByHashMap() {
-        normalizedCharMap.clear();
-        charsToBrightness.forEach(this::addCharacterToTreeMap);
+    public TreeMap<Double, Character> getBrightnessSnapshot() {
+        TreeMap<Double, Character> snapshot = new TreeMap<>();
+        for (Map.Entry<Double, TreeSet<Character>> entry : brightnessCharMap.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().first());
+        }
+        return snapshot;
     }
 
-    /*
-     * Normalizes a brightness value to the range [0, 1].
-     * This function is assumed to be called when the min and max brightness are not equal.
+    /**
+     * Maps a brightness normalized to the range [0, 1] back to the brightness range of the chars, where 0
+     * is the min brightness and 1 is the max brightness, exactly as it is done when matching the brightness.
+     * When all the chars have the same brightness, every query is mapped to it.
+     * This function is assumed to be called when the characters set is not empty.
+     *
+     * @param normalizedBrightness The brightness, normalized to the range [0, 1].
+     * @return The brightness in the range of the brightness levels of the characters.
      */
-    private double getNormalizedBrightness(double brightness) {
-        // case of maxBrightness == minBrightness? or not necessary?
-        return (brightness - minBrightness) / (maxBrightness - minBrightness);
+    public double getUnNormalizedBrightness(double normalizedBrightness) {
+        double minBrightness = brightnessCharMap.firstKey();
+        double maxBrightness = brightnessCharMap.lastKey();
+        return minBrightness + normalizedBrightness * (maxBrightness - minBrightness);
     }
 
     /*
      * Finds the nearest brightness key in the tree map to the specified brightness.
      */
     private Double findNearestBrightnessKey(double brightness) {
-        Double charWithClosestLowerBrightness = normalizedCharMap.floorKey(brightness);
-        Double charWithClosestHigherBrightness = normalizedCharMap.ceilingKey(brightness);
+        Double charWithClosestLowerBrightness = brightnessCharMap.floorKey(brightness);
+        Double charWithClosestHigherBrightness = brightnessCharMap.ceilingKey(brightness);
 
         // If we have both a lower and a higher, we need to find out which is closer
         if (charWithClosestLowerBrightness != null && charWithClosestHigherBrightness != null) {
@@ -212,8 +256,8 @@ public class SubImgCharMatcher {
             return higherBrightness;
         } else {
             // If the differences are equal, we retrieve the sets for both brightnesses
-            TreeSet<Character> lowerChars = normalizedCharMap.get(lowerBrightness);
-            TreeSet<Character> higherChars = normalizedCharMap.get(higherBrightness);
+            TreeSet<Character> lowerChars = brightnessCharMap.get(lowerBrightness);
+            TreeSet<Character> higherChars = brightnessCharMap.get(higherBrightness);
 
             // We choose the one with the smaller ASCII code (the first character in each set)
             char lowerChar = lowerChars.first();
@@ -227,22 +271,10 @@ public class SubImgCharMatcher {
 
     /*
      * Returns the brightness of a character (the average brightness of its pixels).
-     * Called when the character is not in the map.
+     * Called when the character is not in the map. The glyph is only rasterized if it isn't in the
+     * persistent glyph brightness cache yet.
      */
     private double getCharBrightness(char c) {
-        boolean[][] blackAndWhiteCharImage =  CharConverter.convertToBoolArray(c);
-        int height = blackAndWhiteCharImage.length;
-        int width = blackAndWhiteCharImage[0].length;
-        int brightnessSum = 0;
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                if (blackAndWhiteCharImage[row][col]) {
-                    brightnessSum++;
-                }
-            }
-        }
-
-        int numberOfPixelsInCharImage = height * width;
-        return (double) brightnessSum / numberOfPixelsInCharImage;
+        return GlyphBrightnessCache.getInstance().getBrightness(c);
     }
 }
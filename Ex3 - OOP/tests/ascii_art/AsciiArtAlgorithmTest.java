@@ -0,0 +1,138 @@
+package ascii_art;
+
+import image.RowScheduler;
+import image_char_matching.SubImgCharMatcher;
+import testing.Check;
+import testing.Fixtures;
+
+import java.util.Random;
+
+/**
+ * Compares the ASCII art {@link AsciiArtAlgorithm} updates from a previous frame of an animation against the
+ * ASCII art created from scratch, sequentially and in parallel, on frames in which some sub-images keep
+ * their brightness, some change it slightly, and some change it much.
+ * <p>
+ * The ASCII art it re-matches after edits of the characters is compared against the ASCII art created from
+ * scratch with the edited characters, on random additions and removals, some of which change the min or max
+ * brightness of the characters and make it match every sub-image again.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class AsciiArtAlgorithmTest {
+    private static final char[] CHARS = "0123456789".toCharArray();
+    private static final int HEIGHT = 48;
+    private static final int WIDTH = 64;
+    private static final int FRAMES = 20;
+    private static final char FIRST_EDITED_CHAR = ' ';
+    private static final char LAST_EDITED_CHAR = '~';
+    private static final int EDITS = 100;
+    private static final double SLIGHT_CHANGE = 1e-3;
+    private static final int PARALLELISM = 4;
+    private static final long SEED = 11;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(CHARS);
+        checkFrameUpdates(new AsciiArtAlgorithm(matcher, RowScheduler.SEQUENTIAL), "sequential");
+        checkFrameUpdates(new AsciiArtAlgorithm(matcher, new ParallelismManager(PARALLELISM)), "parallel");
+        checkCharsetEdits();
+    }
+
+    /*
+     * Every frame updated from the previous one is the frame created from scratch, and exactly the
+     * sub-images whose character differs between the two frames are flagged as changed.
+     */
+    private static void checkFrameUpdates(AsciiArtAlgorithm algorithm, String scheduler) {
+        Random random = new Random(SEED);
+        double[][] previousBrightness = Fixtures.randomBrightness(HEIGHT, WIDTH, SEED);
+        char[][] asciiArt = algorithm.run(previousBrightness);
+        for (int frame = 1; frame < FRAMES; frame++) {
+            double[][] brightness = getNextFrame(previousBrightness, random);
+            char[][] previousAsciiArt = copy(asciiArt);
+            boolean[][] changedChars = algorithm.update(previousBrightness, brightness, asciiArt);
+            char[][] expectedAsciiArt = algorithm.run(brightness);
+            String fixture = "frame " + frame + " updated by the " + scheduler + " scheduler";
+            Check.sameGrid(expectedAsciiArt, asciiArt, fixture);
+            for (int row = 0; row < HEIGHT; row++) {
+                for (int col = 0; col < WIDTH; col++) {
+                    Check.equal(previousAsciiArt[row][col] != expectedAsciiArt[row][col],
+                                changedChars[row][col], "changed flag at [" + row + "][" + col + "] of " +
+                                                        fixture);
+                }
+            }
+            previousBrightness = brightness;
+        }
+    }
+
+    /*
+     * After every random addition or removal of a char, the ASCII art re-matched incrementally is the ASCII
+     * art created from scratch. Most edits keep the min and max brightness, so only the sub-images they
+     * affect are matched again, and a run with no edit in between reuses the last ASCII art, unaffected by
+     * changes to the copy returned.
+     */
+    private static void checkCharsetEdits() {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(CHARS);
+        PipelineStats stats = new PipelineStats();
+        AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(matcher, null, null, RowScheduler.SEQUENTIAL,
+                                                            stats);
+        AsciiArtAlgorithm reference = new AsciiArtAlgorithm(matcher, RowScheduler.SEQUENTIAL);
+        double[][] brightness = Fixtures.randomBrightness(HEIGHT, WIDTH, SEED);
+        char[][] asciiArt = algorithm.runIncrementally(brightness);
+        Check.sameGrid(reference.run(brightness), asciiArt, "ASCII art before edits");
+        asciiArt[0][0] = LAST_EDITED_CHAR;
+        Check.sameGrid(reference.run(brightness), algorithm.runIncrementally(brightness), "reused ASCII art");
+        Check.equal(1L, stats.getCount(PipelineStats.Counter.ART_REUSED), "runs that reused the ASCII art");
+
+        Random random = new Random(SEED);
+        for (int edit = 0; edit < EDITS; edit++) {
+            char c = (char) (FIRST_EDITED_CHAR + random.nextInt(LAST_EDITED_CHAR - FIRST_EDITED_CHAR + 1));
+            if (matcher.getBrightnessSnapshot().size() > 1 && random.nextBoolean()) {
+                matcher.removeChar(c);
+            } else {
+                matcher.addChar(c);
+            }
+            Check.sameGrid(reference.run(brightness), algorithm.runIncrementally(brightness),
+                           "ASCII art after edit " + edit + " of '" + c + "'");
+        }
+        long incrementalRuns = stats.getCount(PipelineStats.Counter.ART_INCREMENTAL);
+        Check.isTrue(incrementalRuns > 0, "some edits re-match only the sub-images they affect");
+        Check.isTrue(stats.getCount(PipelineStats.Counter.SUB_IMAGES_MATCHED) <
+                     (stats.getCount(PipelineStats.Counter.ART_FULL) + incrementalRuns) * HEIGHT * WIDTH,
+                     "the incremental runs match fewer sub-images than there are");
+    }
+
+    /*
+     * Creates the next frame of a random animation: about half of the sub-images keep their brightness, a
+     * quarter change it slightly, mostly keeping their character, and a quarter get a random brightness.
+     */
+    private static double[][] getNextFrame(double[][] previousBrightness, Random random) {
+        double[][] brightness = new double[HEIGHT][];
+        for (int row = 0; row < HEIGHT; row++) {
+            brightness[row] = previousBrightness[row].clone();
+            for (int col = 0; col < WIDTH; col++) {
+                int change = random.nextInt(4);
+                if (change == 2) {
+                    double slightChange = (random.nextDouble() * 2 - 1) * SLIGHT_CHANGE;
+                    brightness[row][col] = Math.max(0, Math.min(1, brightness[row][col] + slightChange));
+                } else if (change == 3) {
+                    brightness[row][col] = random.nextDouble();
+                }
+            }
+        }
+        return brightness;
+    }
+
+    /*
+     * Copies a grid of characters.
+     */
+    private static char[][] copy(char[][] asciiArt) {
+        char[][] copy = new char[asciiArt.length][];
+        for (int row = 0; row < asciiArt.length; row++) {
+            copy[row] = asciiArt[row].clone();
+        }
+        return copy;
+    }
+}
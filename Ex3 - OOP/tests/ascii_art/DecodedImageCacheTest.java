@@ -0,0 +1,184 @@
+package ascii_art;
+
+import image.Image;
+import testing.Check;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that {@link DecodedImageCache} keys images by their file and its modification time, evicts its
+ * least recently used images to keep within its budget, and keeps enforcing the budget exactly after the
+ * garbage collector cleared its images, whether the cache notices a cleared image when getting it or from
+ * its reference queue, or both.
+ * <p>
+ * The images are cleared by allocating until the heap runs out, since soft references are guaranteed to be
+ * cleared before an {@link OutOfMemoryError} is thrown.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class DecodedImageCacheTest {
+    private static final long IMAGE_BYTES = 1000; // The memory the cache is told each image takes
+    private static final int IMAGES_IN_BUDGET = 4;
+    private static final int FILES = 6;
+    private static final int ALLOCATION_CHUNK_LONGS = 1 << 23; // 64MB
+    private static final long REFERENCE_QUEUE_WAIT_MILLIS = 100;
+    private static final long MODIFICATION_MILLIS = 1000;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < FILES; i++) {
+                files.add(Files.createTempFile("decoded_image_cache_test", ".png"));
+            }
+            DecodedImageCache.Key[] keys = new DecodedImageCache.Key[FILES];
+            for (int i = 0; i < FILES; i++) {
+                keys[i] = DecodedImageCache.keyOf(files.get(i).toString());
+            }
+            checkKeys(files.get(0), keys[0]);
+            checkLeastRecentlyUsedEviction(keys);
+            checkReplacedAndLargeImages(keys);
+            checkClearedImages(keys);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Path file : files) {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    /*
+     * A file has the same key until it is modified, and an image cached under its old key is not found by
+     * its new one.
+     */
+    private static void checkKeys(Path file, DecodedImageCache.Key key) throws IOException {
+        Check.equal(key, DecodedImageCache.keyOf(file.toString()), "key of an unmodified file");
+        DecodedImageCache cache = new DecodedImageCache(IMAGES_IN_BUDGET * IMAGE_BYTES);
+        DecodedImageCache.CachedImage image = newImage();
+        cache.put(key, image, IMAGE_BYTES);
+        Check.isTrue(cache.get(key) == image, "image of an unmodified file");
+        long lastModifiedMillis = Files.getLastModifiedTime(file).toMillis();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedMillis - MODIFICATION_MILLIS));
+        DecodedImageCache.Key modifiedKey = DecodedImageCache.keyOf(file.toString());
+        Check.isTrue(!key.equals(modifiedKey), "key of a modified file");
+        Check.isTrue(cache.get(modifiedKey) == null, "image of a modified file");
+    }
+
+    /*
+     * When an image exceeds the budget, the least recently used image is evicted, where getting an image
+     * uses it.
+     */
+    private static void checkLeastRecentlyUsedEviction(DecodedImageCache.Key[] keys) {
+        DecodedImageCache cache = new DecodedImageCache(IMAGES_IN_BUDGET * IMAGE_BYTES);
+        DecodedImageCache.CachedImage[] images = new DecodedImageCache.CachedImage[IMAGES_IN_BUDGET + 1];
+        for (int i = 0; i < IMAGES_IN_BUDGET; i++) {
+            images[i] = newImage();
+            cache.put(keys[i], images[i], IMAGE_BYTES);
+        }
+        Check.isTrue(cache.get(keys[0]) == images[0], "first image before eviction");
+        images[IMAGES_IN_BUDGET] = newImage();
+        cache.put(keys[IMAGES_IN_BUDGET], images[IMAGES_IN_BUDGET], IMAGE_BYTES);
+        Check.isTrue(cache.get(keys[1]) == null, "least recently used image is evicted");
+        for (int i : new int[]{0, 2, 3, IMAGES_IN_BUDGET}) {
+            Check.isTrue(cache.get(keys[i]) == images[i], "image " + i + " is kept");
+        }
+    }
+
+    /*
+     * Caching an image under a cached key replaces it and its memory, and an image larger than the budget is
+     * not cached and evicts nothing.
+     */
+    private static void checkReplacedAndLargeImages(DecodedImageCache.Key[] keys) {
+        DecodedImageCache cache = new DecodedImageCache(IMAGES_IN_BUDGET * IMAGE_BYTES);
+        DecodedImageCache.CachedImage first = newImage();
+        cache.put(keys[0], first, IMAGE_BYTES);
+        DecodedImageCache.CachedImage replacing = null;
+        for (int i = 0; i < IMAGES_IN_BUDGET * 2; i++) {
+            replacing = newImage();
+            cache.put(keys[1], replacing, IMAGE_BYTES);
+        }
+        Check.isTrue(cache.get(keys[0]) == first, "other image after replacing one");
+        Check.isTrue(cache.get(keys[1]) == replacing, "replaced image");
+        cache.put(keys[2], newImage(), IMAGES_IN_BUDGET * IMAGE_BYTES + 1);
+        Check.isTrue(cache.get(keys[2]) == null, "image larger than the budget");
+        Check.isTrue(cache.get(keys[0]) == first && cache.get(keys[1]) == replacing,
+                     "images after an image larger than the budget");
+    }
+
+    /*
+     * Images cleared by the garbage collector are not returned, and their memory is freed: the cleared
+     * images are the most recently used, so if they were still counted, caching new images would evict the
+     * image that is strongly reachable. One of them is noticed when getting it, the others are polled from
+     * the reference queue. After that the budget is enforced exactly.
+     */
+    private static void checkClearedImages(DecodedImageCache.Key[] keys) {
+        DecodedImageCache cache = new DecodedImageCache(IMAGES_IN_BUDGET * IMAGE_BYTES);
+        DecodedImageCache.CachedImage kept = newImage();
+        cache.put(keys[0], kept, IMAGE_BYTES);
+        for (int i = 1; i < IMAGES_IN_BUDGET; i++) {
+            cache.put(keys[i], newImage(), IMAGE_BYTES); // Only softly reachable
+        }
+        clearSoftReferences();
+        Check.isTrue(cache.get(keys[1]) == null, "cleared image");
+        try {
+            Thread.sleep(REFERENCE_QUEUE_WAIT_MILLIS); // Lets the cleared references be enqueued
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        DecodedImageCache.CachedImage[] images = new DecodedImageCache.CachedImage[FILES];
+        images[0] = kept;
+        for (int i = IMAGES_IN_BUDGET; i < FILES; i++) {
+            images[i] = newImage();
+            cache.put(keys[i], images[i], IMAGE_BYTES);
+        }
+        Check.isTrue(cache.get(keys[0]) == kept, "image kept after images were cleared");
+        for (int i = 1; i < IMAGES_IN_BUDGET; i++) {
+            Check.isTrue(cache.get(keys[i]) == null, "cleared image " + i);
+        }
+        for (int i = IMAGES_IN_BUDGET; i < FILES; i++) {
+            Check.isTrue(cache.get(keys[i]) == images[i], "new image " + i + " is kept");
+        }
+
+        // Fills the budget, then exceeds it by one image, which evicts the least recently used
+        for (int i = 1; i <= 2; i++) {
+            images[i] = newImage();
+            cache.put(keys[i], images[i], IMAGE_BYTES);
+        }
+        Check.isTrue(cache.get(keys[0]) == null, "least recently used image is evicted");
+        for (int i : new int[]{1, 2, 4, 5}) {
+            Check.isTrue(cache.get(keys[i]) == images[i], "image " + i + " is kept");
+        }
+    }
+
+    /*
+     * Allocates until the heap runs out, which clears every softly reachable object first.
+     */
+    private static void clearSoftReferences() {
+        List<long[]> allocations = new ArrayList<>();
+        try {
+            while (true) {
+                allocations.add(new long[ALLOCATION_CHUNK_LONGS]);
+            }
+        } catch (OutOfMemoryError e) {
+            allocations.clear();
+        }
+    }
+
+    /*
+     * Creates an image to cache, whose size doesn't matter since the cache is told it.
+     */
+    private static DecodedImageCache.CachedImage newImage() {
+        return new DecodedImageCache.CachedImage(new Image(new int[1], 1, 1), 0);
+    }
+}
@@ -0,0 +1,108 @@
+package ascii_art;
+
+import image.RowScheduler;
+import image_char_matching.SubImgCharMatcher;
+import testing.Check;
+import testing.Fixtures;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the grids {@link ErrorDiffusionDitherer} dithers in a wavefront of tiles against the same grids
+ * dithered row after row, as they are streamed, with schedulers that run the tiles of a step in order, in
+ * reverse order and in parallel, on grids of one tile, of a few bands and tiles, and of partial ones.
+ * <p>
+ * The error is diffused rather than lost, so the average brightness of the characters of a flat grid is
+ * checked to be that of the grid, within FLAT_TOLERANCE, where plain matching gives the nearest character's.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ErrorDiffusionDithererTest {
+    private static final char[] CHARS = "0123456789".toCharArray();
+    // Grids of one partial tile, of whole and partial bands and tiles, and of many bands or tiles
+    private static final int[][] SIZES = {{1, 1}, {5, 7}, {32, 128}, {33, 129}, {100, 40}, {70, 300},
+                                          {64, 513}};
+    private static final int PARALLELISM = 4;
+    private static final double FLAT_BRIGHTNESS = 0.37;
+    private static final int FLAT_HEIGHT = 64;
+    private static final int FLAT_WIDTH = 256;
+    private static final double FLAT_TOLERANCE = 0.005;
+    private static final long SEED = 13;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(CHARS);
+        ErrorDiffusionDitherer ditherer = new ErrorDiffusionDitherer(matcher);
+        RowScheduler reversed = (rows, rowAction) -> {
+            for (int row = rows - 1; row >= 0; row--) {
+                rowAction.accept(row);
+            }
+        };
+        RowScheduler parallel = new ParallelismManager(PARALLELISM);
+        for (int[] size : SIZES) {
+            double[][] brightness = Fixtures.randomBrightness(size[0], size[1], SEED);
+            char[][] streamedArt = ditherRows(ditherer, brightness);
+            String fixture = size[0] + "x" + size[1];
+            checkGrid(ditherer, brightness, streamedArt, RowScheduler.SEQUENTIAL, fixture + " in order");
+            checkGrid(ditherer, brightness, streamedArt, reversed, fixture + " in reverse order");
+            checkGrid(ditherer, brightness, streamedArt, parallel, fixture + " in parallel");
+        }
+        checkFlatAverage(matcher, ditherer);
+    }
+
+    /*
+     * The grid dithered in a wavefront is the grid dithered row after row.
+     */
+    private static void checkGrid(ErrorDiffusionDitherer ditherer, double[][] brightness,
+                                  char[][] streamedArt, RowScheduler rowScheduler, String fixture) {
+        char[][] asciiArt = new char[brightness.length][brightness[0].length];
+        ditherer.ditherGrid(brightness, asciiArt, rowScheduler);
+        Check.sameGrid(streamedArt, asciiArt, "grid of " + fixture);
+    }
+
+    /*
+     * The average normalized brightness of the characters a flat grid is dithered to is the brightness of
+     * the grid.
+     */
+    private static void checkFlatAverage(SubImgCharMatcher matcher, ErrorDiffusionDitherer ditherer) {
+        double[][] brightness = new double[FLAT_HEIGHT][FLAT_WIDTH];
+        for (double[] row : brightness) {
+            Arrays.fill(row, FLAT_BRIGHTNESS);
+        }
+        char[][] asciiArt = new char[FLAT_HEIGHT][FLAT_WIDTH];
+        ditherer.ditherGrid(brightness, asciiArt, RowScheduler.SEQUENTIAL);
+
+        TreeMap<Double, Character> charsSnapshot = matcher.getBrightnessSnapshot();
+        double minBrightness = charsSnapshot.firstKey();
+        double brightnessRange = charsSnapshot.lastKey() - minBrightness;
+        double[] charsBrightness = new double[Character.MAX_VALUE + 1];
+        for (Map.Entry<Double, Character> level : charsSnapshot.entrySet()) {
+            charsBrightness[level.getValue()] = (level.getKey() - minBrightness) / brightnessRange;
+        }
+        double sum = 0;
+        for (char[] row : asciiArt) {
+            for (char c : row) {
+                sum += charsBrightness[c];
+            }
+        }
+        Check.near(FLAT_BRIGHTNESS, sum / (FLAT_HEIGHT * FLAT_WIDTH), FLAT_TOLERANCE,
+                   "average brightness of a dithered flat grid");
+    }
+
+    /*
+     * Dithers a grid row after row, as the rows of a streamed image are dithered.
+     */
+    private static char[][] ditherRows(ErrorDiffusionDitherer ditherer, double[][] brightness) {
+        char[][] asciiArt = new char[brightness.length][brightness[0].length];
+        int[][] errorRows = ErrorDiffusionDitherer.createErrorRows(brightness[0].length);
+        for (int row = 0; row < brightness.length; row++) {
+            ditherer.ditherRow(brightness[row], asciiArt[row], errorRows);
+        }
+        return asciiArt;
+    }
+}
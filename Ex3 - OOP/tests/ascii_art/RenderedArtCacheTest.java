@@ -0,0 +1,123 @@
+package ascii_art;
+
+import testing.Check;
+
+/**
+ * Checks that {@link RenderedArtCache} evicts its least recently used entries to keep within its budget,
+ * keys its entries by every part of the key, and neither keeps nor returns art that can be modified from
+ * outside it.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class RenderedArtCacheTest {
+    private static final int ROWS = 4;
+    private static final int RESOLUTION = 8;
+    // The estimated memory of an entry of ROWS x RESOLUTION chars: the entry, and each row's header and chars
+    private static final long ENTRY_BYTES = 128 + ROWS * (16 + RESOLUTION * Character.BYTES);
+    private static final int ENTRIES_IN_BUDGET = 3;
+    private static final long[] CHARSET_BITS = {0x03FF000000000000L, 0}; // The digits
+    private static final long[] OTHER_CHARSET_BITS = {0x03FF000100000000L, 0}; // The digits and ' '
+    private static final AsciiArtAlgorithm.MatchMode MODE = AsciiArtAlgorithm.MatchMode.BRIGHTNESS;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        checkLeastRecentlyUsedEviction();
+        checkReplacedEntries();
+        checkKeys();
+        checkCopies();
+        checkUncachedArt();
+    }
+
+    /*
+     * When an entry exceeds the budget, the least recently used entry is evicted, where getting an entry
+     * uses it.
+     */
+    private static void checkLeastRecentlyUsedEviction() {
+        RenderedArtCache cache = new RenderedArtCache(ENTRIES_IN_BUDGET * ENTRY_BYTES);
+        for (long imageHash = 0; imageHash < ENTRIES_IN_BUDGET; imageHash++) {
+            cache.put(imageHash, RESOLUTION, CHARSET_BITS, MODE, getArt((char) ('0' + imageHash)));
+        }
+        Check.equal(ENTRIES_IN_BUDGET, cache.size(), "entries within the budget");
+        Check.isTrue(cache.get(0, RESOLUTION, CHARSET_BITS, MODE) != null, "first entry before eviction");
+        cache.put(ENTRIES_IN_BUDGET, RESOLUTION, CHARSET_BITS, MODE, getArt('9'));
+        Check.equal(ENTRIES_IN_BUDGET, cache.size(), "entries after eviction");
+        Check.isTrue(cache.get(1, RESOLUTION, CHARSET_BITS, MODE) == null, "least recently used is evicted");
+        for (long imageHash : new long[]{0, 2, ENTRIES_IN_BUDGET}) {
+            Check.isTrue(cache.get(imageHash, RESOLUTION, CHARSET_BITS, MODE) != null,
+                         "entry of image " + imageHash + " is kept");
+        }
+    }
+
+    /*
+     * Putting art under a key that is cached replaces its entry, whose memory is not counted anymore.
+     */
+    private static void checkReplacedEntries() {
+        RenderedArtCache cache = new RenderedArtCache(ENTRIES_IN_BUDGET * ENTRY_BYTES);
+        cache.put(0, RESOLUTION, CHARSET_BITS, MODE, getArt('0'));
+        for (int i = 0; i < ENTRIES_IN_BUDGET * 2; i++) {
+            cache.put(1, RESOLUTION, CHARSET_BITS, MODE, getArt((char) ('0' + i)));
+        }
+        Check.equal(2, cache.size(), "entries after replacing one");
+        Check.isTrue(cache.get(0, RESOLUTION, CHARSET_BITS, MODE) != null, "other entry is kept");
+        Check.equal(getArt((char) ('0' + ENTRIES_IN_BUDGET * 2 - 1)),
+                    cache.get(1, RESOLUTION, CHARSET_BITS, MODE), "replaced entry");
+    }
+
+    /*
+     * Art is found only by the image, resolution, charset and matching mode it was put with.
+     */
+    private static void checkKeys() {
+        RenderedArtCache cache = new RenderedArtCache(ENTRIES_IN_BUDGET * ENTRY_BYTES);
+        cache.put(0, RESOLUTION, CHARSET_BITS, MODE, getArt('0'));
+        Check.equal(getArt('0'), cache.get(0, RESOLUTION, CHARSET_BITS.clone(), MODE), "cached art");
+        Check.isTrue(cache.get(1, RESOLUTION, CHARSET_BITS, MODE) == null, "art of another image");
+        Check.isTrue(cache.get(0, RESOLUTION * 2, CHARSET_BITS, MODE) == null, "art in another resolution");
+        Check.isTrue(cache.get(0, RESOLUTION, OTHER_CHARSET_BITS, MODE) == null, "art of another charset");
+        Check.isTrue(cache.get(0, RESOLUTION, CHARSET_BITS, AsciiArtAlgorithm.MatchMode.DITHERED) == null,
+                     "art of another matching mode");
+    }
+
+    /*
+     * Modifying the art after putting it, or the art returned, doesn't modify the cached art.
+     */
+    private static void checkCopies() {
+        RenderedArtCache cache = new RenderedArtCache(ENTRIES_IN_BUDGET * ENTRY_BYTES);
+        char[][] asciiArt = getArt('0');
+        cache.put(0, RESOLUTION, CHARSET_BITS, MODE, asciiArt);
+        asciiArt[0][0] = '1';
+        char[][] cachedArt = cache.get(0, RESOLUTION, CHARSET_BITS, MODE);
+        Check.equal(getArt('0'), cachedArt, "art modified after it was put");
+        cachedArt[0][0] = '1';
+        Check.equal(getArt('0'), cache.get(0, RESOLUTION, CHARSET_BITS, MODE), "art modified after get");
+    }
+
+    /*
+     * Art of a charset that is not ASCII, or larger than the budget, is not cached and evicts nothing.
+     */
+    private static void checkUncachedArt() {
+        RenderedArtCache cache = new RenderedArtCache(ENTRIES_IN_BUDGET * ENTRY_BYTES);
+        cache.put(0, RESOLUTION, CHARSET_BITS, MODE, getArt('0'));
+        cache.put(1, RESOLUTION, null, MODE, getArt('1'));
+        Check.isTrue(cache.get(1, RESOLUTION, null, MODE) == null, "art of a charset that is not ASCII");
+        char[][] largeArt = new char[ROWS * ENTRIES_IN_BUDGET * 2][RESOLUTION];
+        cache.put(2, RESOLUTION, CHARSET_BITS, MODE, largeArt);
+        Check.isTrue(cache.get(2, RESOLUTION, CHARSET_BITS, MODE) == null, "art larger than the budget");
+        Check.equal(1, cache.size(), "entries after uncached art");
+    }
+
+    /*
+     * Creates art of ROWS x RESOLUTION chars, all the given char but the last of each row.
+     */
+    private static char[][] getArt(char c) {
+        char[][] asciiArt = new char[ROWS][RESOLUTION];
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < RESOLUTION; col++) {
+                asciiArt[row][col] = col == RESOLUTION - 1 ? ' ' : c;
+            }
+        }
+        return asciiArt;
+    }
+}
@@ -0,0 +1,75 @@
+package image;
+
+import ascii_art.ParallelismManager;
+import testing.Check;
+import testing.Fixtures;
+
+/**
+ * Compares every level of {@link BrightnessPyramid} against the original double precision averages of the
+ * copied sub-images, on padded images whose content does and doesn't fill them, built sequentially and in
+ * parallel.
+ * <p>
+ * The levels are fixed point sums, so like the averages of {@link ImageProcessor} they differ from the
+ * baseline by rounding only, bounded by TOLERANCE. The pyramid is identical for any scheduler, so the levels
+ * built in parallel are compared to the sequential ones exactly.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class BrightnessPyramidTest {
+    private static final double TOLERANCE = 1e-12;
+    private static final int[][] SIZES = {{1, 1}, {16, 16}, {37, 23}, {64, 8}, {5, 70}, {100, 61}};
+    private static final long SEED = 7;
+    private static final int PARALLELISM = 4;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        ParallelismManager parallelismManager = new ParallelismManager(PARALLELISM);
+        for (int[] size : SIZES) {
+            Image paddedImage = ImageProcessor.padImage(Fixtures.randomImage(size[0], size[1], SEED));
+            String fixture = size[0] + "x" + size[1];
+            BrightnessPyramid pyramid = new BrightnessPyramid(paddedImage);
+            checkResolutions(pyramid, paddedImage, fixture);
+            checkLevels(pyramid, paddedImage, fixture);
+            checkParallelLevels(pyramid, new BrightnessPyramid(paddedImage, parallelismManager), fixture);
+        }
+    }
+
+    /*
+     * The pyramid spans the resolutions from square sub-images as high as the image to single pixels.
+     */
+    private static void checkResolutions(BrightnessPyramid pyramid, Image paddedImage, String fixture) {
+        int minSubImageSize = Math.min(paddedImage.getWidth(), paddedImage.getHeight());
+        Check.equal(paddedImage.getWidth() / minSubImageSize, pyramid.getMinResolution(),
+                    "min resolution of " + fixture);
+        Check.equal(pyramid.getMinResolution(),
+                    BrightnessPyramid.getMinResolution(paddedImage.getWidth(), paddedImage.getHeight()),
+                    "min resolution of " + fixture + " without building its pyramid");
+        Check.equal(paddedImage.getWidth(), pyramid.getMaxResolution(), "max resolution of " + fixture);
+    }
+
+    /*
+     * Every level, including the single pixels and the levels whose sub-images are partly or all padding.
+     */
+    private static void checkLevels(BrightnessPyramid pyramid, Image paddedImage, String fixture) {
+        for (int resolution = pyramid.getMinResolution(); resolution <= pyramid.getMaxResolution();
+             resolution *= 2) {
+            Check.nearGrid(Fixtures.baselineAverages(paddedImage, resolution), pyramid.getLevel(resolution),
+                           TOLERANCE, "pyramid level of " + fixture + " at " + resolution);
+        }
+    }
+
+    /*
+     * The levels built in parallel are exactly the sequential ones.
+     */
+    private static void checkParallelLevels(BrightnessPyramid sequential, BrightnessPyramid parallel,
+                                            String fixture) {
+        for (int resolution = sequential.getMinResolution(); resolution <= sequential.getMaxResolution();
+             resolution *= 2) {
+            Check.nearGrid(sequential.getLevel(resolution), parallel.getLevel(resolution), 0,
+                           "parallel pyramid level of " + fixture + " at " + resolution);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package image;
+
+import testing.Check;
+import testing.Fixtures;
+
+/**
+ * Compares the fixed point brightness calculations of {@link ImageProcessor} against the original double
+ * precision calculation, on small images whose dimensions are and are not powers of two.
+ * <p>
+ * The fixed point greyscale changes results on purpose: the weights are exact in fixed point and the sums
+ * are exact integers, while the double precision sums round at every pixel. The difference is bounded by
+ * TOLERANCE, far below the brightness differences between characters.
+ * <p>
+ * The sub-images divided as views of the image are compared against the copied sub-images, pixel by pixel
+ * and by their averages, which are calculated from the same fixed point sums and must be identical.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class ImageProcessorTest {
+    private static final double TOLERANCE = 1e-12;
+    private static final int[][] SIZES = {{1, 1}, {16, 16}, {37, 23}, {64, 8}, {5, 70}, {100, 61}};
+    private static final long SEED = 42;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        for (int[] size : SIZES) {
+            Image paddedImage = ImageProcessor.padImage(Fixtures.randomImage(size[0], size[1], SEED));
+            String fixture = size[0] + "x" + size[1];
+            checkImageAverage(paddedImage, fixture);
+            checkIntegralImageAverages(paddedImage, fixture);
+            checkSubImageRegions(paddedImage, fixture);
+        }
+        checkWhite();
+    }
+
+    /*
+     * The average of a whole image, from the fixed point sum of its content and its white padding.
+     */
+    private static void checkImageAverage(Image paddedImage, String fixture) {
+        Check.near(Fixtures.baselineAverage(paddedImage),
+                   ImageProcessor.calculateImageNormalizedGrayscaleAverage(paddedImage), TOLERANCE,
+                   "image average of " + fixture);
+    }
+
+    /*
+     * The averages of the sub-images in every resolution, from four lookups in the summed-area table.
+     */
+    private static void checkIntegralImageAverages(Image paddedImage, String fixture) {
+        GreyscaleIntegralImage integralImage = new GreyscaleIntegralImage(paddedImage);
+        for (int resolution = 1; resolution <= paddedImage.getWidth(); resolution *= 2) {
+            if (paddedImage.getWidth() / resolution > paddedImage.getHeight()) {
+                continue;
+            }
+            Check.nearGrid(Fixtures.baselineAverages(paddedImage, resolution),
+                           ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(integralImage,
+                                                                                        resolution),
+                           TOLERANCE, "summed-area table averages of " + fixture + " at " + resolution);
+        }
+    }
+
+    /*
+     * In every resolution, each view of a sub-image has the pixels of its copy and the same average, and the
+     * averages of the views and of the rows of content match the baseline.
+     */
+    private static void checkSubImageRegions(Image paddedImage, String fixture) {
+        for (int resolution = 1; resolution <= paddedImage.getWidth(); resolution *= 2) {
+            if (paddedImage.getWidth() / resolution > paddedImage.getHeight()) {
+                continue;
+            }
+            String fixtureResolution = fixture + " at " + resolution;
+            ImageRegion[][] regions = ImageProcessor.divideIntoSubImageRegions(paddedImage, resolution);
+            Image[][] subImages = ImageProcessor.divideIntoSubImages(paddedImage, resolution);
+            Check.equal(subImages.length, regions.length, "sub-image rows of " + fixtureResolution);
+            for (int row = 0; row < regions.length; row++) {
+                for (int col = 0; col < regions[row].length; col++) {
+                    checkRegionPixels(subImages[row][col], regions[row][col],
+                                      "sub-image [" + row + "][" + col + "] of " + fixtureResolution);
+                }
+            }
+            double[][] baselineAverages = Fixtures.baselineAverages(paddedImage, resolution);
+            double[][] regionAverages = ImageProcessor.calculateRegionsNormalizedGrayscaleAverages(regions);
+            Check.nearGrid(baselineAverages, regionAverages, TOLERANCE,
+                           "sub-image view averages of " + fixtureResolution);
+            double[][] contentRowAverages =
+                    ImageProcessor.calculateSubImagesNormalizedGrayscaleAverages(paddedImage, resolution);
+            Check.nearGrid(baselineAverages, contentRowAverages, TOLERANCE,
+                           "content row averages of " + fixtureResolution);
+        }
+    }
+
+    /*
+     * A view of a sub-image has the dimensions and the pixels of its copy, and the same average.
+     */
+    private static void checkRegionPixels(Image subImage, ImageRegion region, String fixture) {
+        Check.equal(subImage.getWidth(), region.getWidth(), "width of " + fixture);
+        Check.equal(subImage.getHeight(), region.getHeight(), "height of " + fixture);
+        for (int x = 0; x < region.getHeight(); x++) {
+            for (int y = 0; y < region.getWidth(); y++) {
+                Check.equal(subImage.getPixelRGB(x, y), region.getPixelRGB(x, y),
+                            "pixel [" + x + "][" + y + "] of " + fixture);
+            }
+        }
+        Check.equal(ImageProcessor.calculateImageNormalizedGrayscaleAverage(subImage),
+                    ImageProcessor.calculateRegionNormalizedGrayscaleAverage(region),
+                    "average of " + fixture);
+    }
+
+    /*
+     * White is exactly 1 in fixed point, where the double precision weights sum to 1 only approximately.
+     */
+    private static void checkWhite() {
+        Image white = new Image(new int[]{0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF}, 2, 2);
+        Check.equal(1.0, ImageProcessor.calculateImageNormalizedGrayscaleAverage(white), "white average");
+    }
+}
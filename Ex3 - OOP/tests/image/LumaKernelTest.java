@@ -0,0 +1,104 @@
+package image;
+
+import testing.Check;
+import testing.Fixtures;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the fixed point greyscale intensities of the luma kernels against the original double precision
+ * greyscale, and the preferred kernel (the SIMD kernel, when it is compiled and its module is present)
+ * against the scalar kernel, on row segments of every offset and length around the width of a vector.
+ * <p>
+ * The fixed point weights are the double precision weights scaled exactly, so an intensity differs from the
+ * double precision one by rounding only, bounded by TOLERANCE. All the kernels compute in integers, so they
+ * must give exactly the same intensities and sums.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class LumaKernelTest {
+    private static final double TOLERANCE = 1e-9;
+    private static final int PIXELS = 4096;
+    private static final int MAX_OFFSET = 17;
+    private static final int MAX_LENGTH = 70; // Several vectors of the widest species, and a partial one
+    private static final int LONG_ROW_LENGTH = 1 << 20; // Long enough to overflow int lanes if not flushed
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final long SEED = 3;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        int[] pixels = getPixels();
+        checkScalarKernel(pixels);
+        checkPreferredKernel(pixels);
+        checkLongWhiteRow();
+    }
+
+    /*
+     * The scalar kernel converts every pixel to its fixed point intensity, which is the double precision
+     * greyscale scaled, and sums exactly what it converts.
+     */
+    private static void checkScalarKernel(int[] pixels) {
+        LumaKernel scalar = new ScalarLumaKernel();
+        int[] luma = new int[pixels.length];
+        scalar.toLuma(pixels, 0, pixels.length, luma, 0);
+        long sum = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            Check.equal(ImageProcessor.getScaledGreyscaleIntensity(pixels[i]), luma[i],
+                        "scalar luma of " + Integer.toHexString(pixels[i]));
+            double greyscale = (double) luma[i] / ImageProcessor.GREYSCALE_SCALE;
+            Check.near(Fixtures.baselineGreyscale(pixels[i]), greyscale, TOLERANCE,
+                       "scaled luma of " + Integer.toHexString(pixels[i]));
+            sum += luma[i];
+        }
+        Check.equal(sum, scalar.sumLuma(pixels, 0, pixels.length), "scalar luma sum");
+    }
+
+    /*
+     * The preferred kernel converts and sums every row segment exactly as the scalar kernel, whether the
+     * segment starts at the beginning of a vector or not, and whether it fills its last vector or not.
+     */
+    private static void checkPreferredKernel(int[] pixels) {
+        LumaKernel scalar = new ScalarLumaKernel();
+        String kernel = LumaKernel.PREFERRED.getClass().getSimpleName();
+        int[] expectedLuma = new int[MAX_LENGTH + 1];
+        int[] luma = new int[MAX_LENGTH + 1];
+        for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+            for (int length = 0; length <= MAX_LENGTH; length++) {
+                String segment = kernel + " segment of " + length + " at " + offset;
+                scalar.toLuma(pixels, offset, length, expectedLuma, 1);
+                LumaKernel.PREFERRED.toLuma(pixels, offset, length, luma, 1);
+                Check.equal(expectedLuma, luma, "luma of " + segment);
+                Check.equal(scalar.sumLuma(pixels, offset, length),
+                            LumaKernel.PREFERRED.sumLuma(pixels, offset, length), "luma sum of " + segment);
+            }
+        }
+    }
+
+    /*
+     * The sum of a long row of white pixels, the largest sum of a row that long, is exact.
+     */
+    private static void checkLongWhiteRow() {
+        int[] white = new int[LONG_ROW_LENGTH];
+        Arrays.fill(white, WHITE);
+        Check.equal(LONG_ROW_LENGTH * ImageProcessor.WHITE_SCALED_INTENSITY,
+                    LumaKernel.PREFERRED.sumLuma(white, 0, LONG_ROW_LENGTH), "luma sum of a long white row");
+    }
+
+    /*
+     * Random pixels of random alpha, after black, white, and each channel at its max on its own.
+     */
+    private static int[] getPixels() {
+        int[] pixels = new int[PIXELS];
+        int[] extremes = {0xFF000000, WHITE, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0x00FFFFFF};
+        System.arraycopy(extremes, 0, pixels, 0, extremes.length);
+        Random random = new Random(SEED);
+        for (int i = extremes.length; i < PIXELS; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,258 @@
+package image_char_matching;
+
+import testing.Check;
+
+import java.util.Random;
+
+/**
+ * Compares the matches of {@link SubImgCharMatcher}, most of which are answered by its quantized lookup
+ * table, against a linear search over the characters' brightness, on every border between the buckets of the
+ * table, on either side of it, and on random brightness.
+ * <p>
+ * The matcher normalizes the query into the range of the characters' raw brightness, where the original
+ * matcher normalized every character instead. The two differ by rounding only, so they match the same
+ * character unless the query is within TIE_TOLERANCE of a tie between two characters, where either of them
+ * is a correct match. Edits of the characters are compared against a matcher built from scratch.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class SubImgCharMatcherTest {
+    private static final char[] DIGITS = "0123456789".toCharArray();
+    private static final char[] PRINTABLE_ASCII = getCharRange(' ', '~');
+    private static final int BUCKETS = 4096; // The buckets of the matcher's lookup table
+    private static final int RANDOM_QUERIES = 20000;
+    private static final int EDITS = 300;
+    private static final int QUERIES_PER_EDIT = 500;
+    private static final double TIE_TOLERANCE = 1e-12;
+    private static final long SEED = 5;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        checkLookupTable(DIGITS, "digits");
+        checkLookupTable(PRINTABLE_ASCII, "printable ASCII");
+        checkNormalizedBaseline(DIGITS, "digits");
+        checkNormalizedBaseline(PRINTABLE_ASCII, "printable ASCII");
+        checkEdits();
+    }
+
+    /*
+     * Every query is matched as the linear search matches it, and a single table is built for the charset,
+     * which answers all the queries but those near a border between two chars.
+     */
+    private static void checkLookupTable(char[] chars, String charset) {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(chars);
+        double[] rawBrightness = getRawBrightness(chars);
+        double[] queries = getQueries();
+        for (double query : queries) {
+            Check.equal(findNearestChar(chars, rawBrightness, query), matcher.getCharByImageBrightness(query),
+                        "match of " + query + " in " + charset);
+        }
+        Check.equal(1L, matcher.getLookupTableBuildCount(), "lookup tables built for " + charset);
+        Check.isTrue(matcher.getTreeMapLookupCount() < queries.length / 2,
+                     "most matches of " + charset + " are answered by the lookup table");
+    }
+
+    /*
+     * Every query, including those exactly between two characters in the original normalized brightness, is
+     * matched to the character the original matcher matches it to, or to the other of two tied characters.
+     */
+    private static void checkNormalizedBaseline(char[] chars, String charset) {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(chars);
+        double[] normalizedBrightness = normalize(getRawBrightness(chars));
+        for (double query : getTieQueries(normalizedBrightness)) {
+            char match = matcher.getCharByImageBrightness(query);
+            char baselineMatch = findNearestChar(chars, normalizedBrightness, query);
+            if (match != baselineMatch) {
+                double distance = Math.abs(query - normalizedBrightness[indexOf(chars, match)]);
+                double baselineDistance =
+                        Math.abs(query - normalizedBrightness[indexOf(chars, baselineMatch)]);
+                String tie = match + " instead of " + baselineMatch + " for " + query + " in " + charset;
+                Check.near(baselineDistance, distance, TIE_TOLERANCE, "distance of " + tie);
+            }
+        }
+    }
+
+    /*
+     * After every random addition or removal of a char, the edited matcher matches as a matcher built from
+     * scratch with the same chars, and the lookup table of the previous chars is not used.
+     */
+    private static void checkEdits() {
+        SubImgCharMatcher matcher = new SubImgCharMatcher(DIGITS);
+        boolean[] included = new boolean[PRINTABLE_ASCII[PRINTABLE_ASCII.length - 1] + 1];
+        for (char c : DIGITS) {
+            included[c] = true;
+        }
+        int includedCount = DIGITS.length;
+        Random random = new Random(SEED);
+        for (int edit = 0; edit < EDITS; edit++) {
+            char c = PRINTABLE_ASCII[random.nextInt(PRINTABLE_ASCII.length)];
+            if (!included[c]) {
+                matcher.addChar(c);
+                included[c] = true;
+                includedCount++;
+            } else if (includedCount > 1) {
+                matcher.removeChar(c);
+                included[c] = false;
+                includedCount--;
+            }
+            SubImgCharMatcher rebuilt = new SubImgCharMatcher(getIncludedChars(included, includedCount));
+            for (int query = 0; query < QUERIES_PER_EDIT; query++) {
+                double brightness = random.nextDouble();
+                Check.equal(rebuilt.getCharByImageBrightness(brightness),
+                            matcher.getCharByImageBrightness(brightness),
+                            "match of " + brightness + " after edit " + edit + " of '" + c + "'");
+            }
+        }
+        Check.isTrue(matcher.getLookupTableBuildCount() > 1, "a lookup table is built after edits");
+    }
+
+    /**
+     * Finds the character nearest to a brightness by a linear search, the way the matcher searches its tree
+     * map: the brightness is mapped to the range of the characters' raw brightness, and a tie goes to the
+     * smaller character.
+     *
+     * @param chars The characters, at least one.
+     * @param rawBrightness The raw brightness of each of the characters.
+     * @param brightness The brightness, normalized to [0, 1].
+     * @return The nearest character.
+     */
+    static char findNearestChar(char[] chars, double[] rawBrightness, double brightness) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double charBrightness : rawBrightness) {
+            min = Math.min(min, charBrightness);
+            max = Math.max(max, charBrightness);
+        }
+        double query = min + brightness * (max - min);
+        char nearest = chars[0];
+        double nearestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < chars.length; i++) {
+            double distance = Math.abs(query - rawBrightness[i]);
+            if (distance < nearestDistance || (distance == nearestDistance && chars[i] < nearest)) {
+                nearest = chars[i];
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Calculates the brightness of characters the way it was originally calculated, from their rasterized
+     * glyphs, without the glyph brightness cache.
+     *
+     * @param chars The characters.
+     * @return The fraction of the pixels of each glyph that are set.
+     */
+    static double[] getRawBrightness(char[] chars) {
+        double[] rawBrightness = new double[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            boolean[][] glyph = CharConverter.convertToBoolArray(chars[i]);
+            int setPixels = 0;
+            for (boolean[] row : glyph) {
+                for (boolean pixel : row) {
+                    if (pixel) {
+                        setPixels++;
+                    }
+                }
+            }
+            rawBrightness[i] = (double) setPixels / (glyph.length * glyph[0].length);
+        }
+        return rawBrightness;
+    }
+
+    /*
+     * The borders between the buckets of the lookup table and the brightness on either side of them, and
+     * random brightness.
+     */
+    private static double[] getQueries() {
+        double[] queries = new double[3 * (BUCKETS + 1) + RANDOM_QUERIES];
+        int count = 0;
+        for (int bucket = 0; bucket <= BUCKETS; bucket++) {
+            double border = (double) bucket / BUCKETS;
+            queries[count++] = Math.max(0, Math.nextDown(border));
+            queries[count++] = border;
+            queries[count++] = Math.min(1, Math.nextUp(border));
+        }
+        Random random = new Random(SEED);
+        while (count < queries.length) {
+            queries[count++] = random.nextDouble();
+        }
+        return queries;
+    }
+
+    /*
+     * Normalizes brightness to [0, 1], from the min brightness to the max, as the original matcher did.
+     */
+    private static double[] normalize(double[] rawBrightness) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double brightness : rawBrightness) {
+            min = Math.min(min, brightness);
+            max = Math.max(max, brightness);
+        }
+        double[] normalizedBrightness = new double[rawBrightness.length];
+        for (int i = 0; i < rawBrightness.length; i++) {
+            normalizedBrightness[i] = (rawBrightness[i] - min) / (max - min);
+        }
+        return normalizedBrightness;
+    }
+
+    /*
+     * The normalized brightness of every char, every midpoint between the brightness of two chars, where the
+     * original matcher breaks a tie, and the brightness on either side of them.
+     */
+    private static double[] getTieQueries(double[] normalizedBrightness) {
+        int n = normalizedBrightness.length;
+        double[] queries = new double[3 * (n + n * (n - 1) / 2)];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                double query = (normalizedBrightness[i] + normalizedBrightness[j]) / 2;
+                queries[count++] = Math.max(0, Math.nextDown(query));
+                queries[count++] = query;
+                queries[count++] = Math.min(1, Math.nextUp(query));
+            }
+        }
+        return queries;
+    }
+
+    /*
+     * Returns the index of a char in an array that contains it.
+     */
+    private static int indexOf(char[] chars, char c) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.valueOf(c));
+    }
+
+    /*
+     * Returns the chars marked as included, in ascending order.
+     */
+    private static char[] getIncludedChars(boolean[] included, int includedCount) {
+        char[] chars = new char[includedCount];
+        int count = 0;
+        for (char c = 0; c < included.length; c++) {
+            if (included[c]) {
+                chars[count++] = c;
+            }
+        }
+        return chars;
+    }
+
+    /*
+     * Returns the characters from first to last, inclusive.
+     */
+    private static char[] getCharRange(char first, char last) {
+        char[] chars = new char[last - first + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (first + i);
+        }
+        return chars;
+    }
+}
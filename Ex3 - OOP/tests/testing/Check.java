@@ -0,0 +1,108 @@
+package testing;
+
+import java.util.Arrays;
+
+/**
+ * The checks the tests are made of. A failed check throws an {@link AssertionError} that describes what was
+ * expected and what was found, so the checks work without the JVM's assertions being enabled.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public final class Check {
+    private static final String MISMATCH_FORMAT = "%s: expected %s but was %s";
+    private static final String CELL_MISMATCH_FORMAT = "%s: at [%d][%d] expected %s but was %s";
+    private static final String DIMENSIONS_MISMATCH_FORMAT = "%s: expected %d rows of %d but was %d rows " +
+                                                             "of %d";
+
+    private Check() {
+    }
+
+    /**
+     * Checks that a condition holds.
+     *
+     * @param condition The condition.
+     * @param message What the condition means, reported if it doesn't hold.
+     */
+    public static void isTrue(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Checks that two values are equal.
+     *
+     * @param expected The expected value.
+     * @param actual The value found.
+     * @param message What the values are, reported if they differ.
+     */
+    public static void equal(Object expected, Object actual, String message) {
+        if (!Arrays.deepEquals(new Object[]{expected}, new Object[]{actual})) {
+            throw new AssertionError(String.format(MISMATCH_FORMAT, message, expected, actual));
+        }
+    }
+
+    /**
+     * Checks that two numbers differ by at most a tolerance.
+     *
+     * @param expected The expected number.
+     * @param actual The number found.
+     * @param tolerance The largest difference allowed.
+     * @param message What the numbers are, reported if they differ by more.
+     */
+    public static void near(double expected, double actual, double tolerance, String message) {
+        if (!(Math.abs(expected - actual) <= tolerance)) {
+            throw new AssertionError(String.format(MISMATCH_FORMAT, message, expected, actual));
+        }
+    }
+
+    /**
+     * Checks that two grids of numbers have the same dimensions, and that their cells differ by at most a
+     * tolerance.
+     *
+     * @param expected The expected grid.
+     * @param actual The grid found.
+     * @param tolerance The largest difference allowed in a cell.
+     * @param message What the grids are, reported with the first cell that differs by more.
+     */
+    public static void nearGrid(double[][] expected, double[][] actual, double tolerance, String message) {
+        sameDimensions(expected.length, expected[0].length, actual.length, actual[0].length, message);
+        for (int row = 0; row < expected.length; row++) {
+            for (int col = 0; col < expected[row].length; col++) {
+                if (!(Math.abs(expected[row][col] - actual[row][col]) <= tolerance)) {
+                    throw new AssertionError(String.format(CELL_MISMATCH_FORMAT, message, row, col,
+                                                           expected[row][col], actual[row][col]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that two grids of characters are identical.
+     *
+     * @param expected The expected grid.
+     * @param actual The grid found.
+     * @param message What the grids are, reported with the first cell that differs.
+     */
+    public static void sameGrid(char[][] expected, char[][] actual, String message) {
+        sameDimensions(expected.length, expected[0].length, actual.length, actual[0].length, message);
+        for (int row = 0; row < expected.length; row++) {
+            for (int col = 0; col < expected[row].length; col++) {
+                if (expected[row][col] != actual[row][col]) {
+                    throw new AssertionError(String.format(CELL_MISMATCH_FORMAT, message, row, col,
+                                                           expected[row][col], actual[row][col]));
+                }
+            }
+        }
+    }
+
+    /*
+     * Checks that two grids have the same number of rows, and of cells in their first rows.
+     */
+    private static void sameDimensions(int expectedRows, int expectedCols, int actualRows, int actualCols,
+                                       String message) {
+        if (expectedRows != actualRows || expectedCols != actualCols) {
+            throw new AssertionError(String.format(DIMENSIONS_MISMATCH_FORMAT, message, expectedRows,
+                                                   expectedCols, actualRows, actualCols));
+        }
+    }
+}
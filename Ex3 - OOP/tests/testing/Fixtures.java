@@ -0,0 +1,124 @@
+package testing;
+
+import image.Image;
+
+import java.util.Random;
+
+/**
+ * Small fixtures for the tests, generated from a seed so every run checks the same inputs, and the baseline
+ * brightness calculation the optimized ones are compared against.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public final class Fixtures {
+    private static final int MAX_INTENSITY = 255;
+    // The greyscale weights of the original, double precision calculation
+    private static final double RED_WEIGHT_TO_GREYSCALE = 0.2126;
+    private static final double GREEN_WEIGHT_TO_GREYSCALE = 0.7152;
+    private static final double BLUE_WEIGHT_TO_GREYSCALE = 0.0722;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Creates an image of random opaque pixels, with smooth areas and noise, so sub-images differ in
+     * brightness.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param seed The seed of the pixels.
+     * @return The image.
+     */
+    public static Image randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int gradient = (row * MAX_INTENSITY / height + col * MAX_INTENSITY / width) / 2;
+                int red = Math.min(MAX_INTENSITY, gradient + random.nextInt(64));
+                int green = Math.max(0, gradient - random.nextInt(64));
+                int blue = random.nextInt(MAX_INTENSITY + 1);
+                pixels[row * width + col] = OPAQUE_ALPHA | red << RED_SHIFT | green << GREEN_SHIFT | blue;
+            }
+        }
+        return new Image(pixels, width, height);
+    }
+
+    /**
+     * Creates a grid of random brightness in [0, 1], half of its rows a gradient and half noise.
+     *
+     * @param height The number of rows.
+     * @param width The number of cells in each row.
+     * @param seed The seed of the brightness.
+     * @return The grid.
+     */
+    public static double[][] randomBrightness(int height, int width, long seed) {
+        Random random = new Random(seed);
+        double[][] brightness = new double[height][width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                brightness[row][col] = row % 2 == 0 ? (double) col / width : random.nextDouble();
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * Calculates the average brightness of an image the way it was originally calculated: the greyscale of
+     * every pixel in double precision, summed in double precision and normalized.
+     *
+     * @param image The image.
+     * @return The average brightness, normalized to [0, 1].
+     */
+    public static double baselineAverage(Image image) {
+        double sum = 0;
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                sum += baselineGreyscale(image.getPixelRGB(row, col));
+            }
+        }
+        return sum / (image.getHeight() * image.getWidth()) / MAX_INTENSITY;
+    }
+
+    /**
+     * Calculates the average brightness of every square sub-image of an image in the given resolution, by
+     * copying the sub-images out of the image and averaging each of them as originally.
+     *
+     * @param image The image, with dimensions that are powers of two.
+     * @param resolution The number of sub-images in each row.
+     * @return The grid of average brightness, normalized to [0, 1].
+     */
+    public static double[][] baselineAverages(Image image, int resolution) {
+        int subImageSize = image.getWidth() / resolution;
+        double[][] brightness = new double[image.getHeight() / subImageSize][resolution];
+        for (int row = 0; row < brightness.length; row++) {
+            for (int col = 0; col < resolution; col++) {
+                int[] pixels = new int[subImageSize * subImageSize];
+                for (int subRow = 0; subRow < subImageSize; subRow++) {
+                    for (int subCol = 0; subCol < subImageSize; subCol++) {
+                        pixels[subRow * subImageSize + subCol] = image.getPixelRGB(
+                                row * subImageSize + subRow, col * subImageSize + subCol);
+                    }
+                }
+                brightness[row][col] = baselineAverage(new Image(pixels, subImageSize, subImageSize));
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * Calculates the greyscale intensity of a packed RGB pixel the way it was originally calculated, in
+     * double precision.
+     *
+     * @param rgb The packed RGB pixel.
+     * @return The greyscale intensity, in the range [0, 255].
+     */
+    public static double baselineGreyscale(int rgb) {
+        return ((rgb >> RED_SHIFT) & CHANNEL_MASK) * RED_WEIGHT_TO_GREYSCALE +
+               ((rgb >> GREEN_SHIFT) & CHANNEL_MASK) * GREEN_WEIGHT_TO_GREYSCALE +
+               (rgb & CHANNEL_MASK) * BLUE_WEIGHT_TO_GREYSCALE;
+    }
+}
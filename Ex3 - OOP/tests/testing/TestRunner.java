@@ -0,0 +1,61 @@
+package testing;
+
+import ascii_art.AsciiArtAlgorithmTest;
+import ascii_art.DecodedImageCacheTest;
+import ascii_art.ErrorDiffusionDithererTest;
+import ascii_art.RenderedArtCacheTest;
+import image.BrightnessPyramidTest;
+import image.ImageProcessorTest;
+import image.LumaKernelTest;
+import image_char_matching.SubImgCharMatcherTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs all the tests, and reports each of them as passed or failed, with the first check that failed.
+ * Exits with status 1 if any test failed, so it can gate a build.
+ * <p>
+ * Usage: java testing.TestRunner
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+public class TestRunner {
+    private static final String PASSED_FORMAT = "PASSED %s%n";
+    private static final String FAILED_FORMAT = "FAILED %s: %s%n";
+    private static final String SUMMARY_FORMAT = "%d passed, %d failed%n";
+    private static final String[] NO_ARGS = new String[0];
+
+    /**
+     * Runs all the tests.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        // The tests, by name, in the order they are run
+        Map<String, Consumer<String[]>> tests = new LinkedHashMap<>();
+        tests.put("ImageProcessorTest", ImageProcessorTest::main);
+        tests.put("BrightnessPyramidTest", BrightnessPyramidTest::main);
+        tests.put("SubImgCharMatcherTest", SubImgCharMatcherTest::main);
+        tests.put("AsciiArtAlgorithmTest", AsciiArtAlgorithmTest::main);
+        tests.put("LumaKernelTest", LumaKernelTest::main);
+        tests.put("RenderedArtCacheTest", RenderedArtCacheTest::main);
+        tests.put("DecodedImageCacheTest", DecodedImageCacheTest::main);
+        tests.put("ErrorDiffusionDithererTest", ErrorDiffusionDithererTest::main);
+
+        int failed = 0;
+        for (Map.Entry<String, Consumer<String[]>> test : tests.entrySet()) {
+            try {
+                test.getValue().accept(NO_ARGS);
+                System.out.printf(PASSED_FORMAT, test.getKey());
+            } catch (AssertionError | RuntimeException e) {
+                System.out.printf(FAILED_FORMAT, test.getKey(), e);
+                failed++;
+            }
+        }
+        System.out.printf(SUMMARY_FORMAT, tests.size() - failed, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A luma kernel that converts as many pixels at a time as the platform's preferred SIMD registers hold,
+ * with the Vector API (jdk.incubator.vector). Every step is an integer lane operation - unpacking the
+ * channels with shifts and masks, and weighting them with multiplications - so the results are exactly
+ * those of the scalar kernel. Loaded reflectively by {@link LumaKernel#PREFERRED}, only when the module is
+ * present.
+ * <p>
+ * This class is kept in a source root of its own, vector_kernel, so the rest of the project compiles without
+ * the incubator module. It is compiled separately, into the same output directory:
+ * {@code javac --add-modules jdk.incubator.vector -cp out -d out vector_kernel/image/VectorLumaKernel.java},
+ * and used when running with {@code --add-modules jdk.incubator.vector}.
+ * @author Shir Rashkovits and Yoav Dolev
+ */
+class VectorLumaKernel implements LumaKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    // Vectors summed in int lanes before the lanes are added to a long, so even the sum of all the lanes
+    // can't overflow an int
+    private static final int VECTORS_PER_FLUSH = (int) (Integer.MAX_VALUE /
+            (ImageProcessor.WHITE_SCALED_INTENSITY * SPECIES.length()));
+
+    @Override
+    public void toLuma(int[] rgb, int offset, int length, int[] luma, int lumaOffset) {
+        int i = 0;
+        int vectorsEnd = SPECIES.loopBound(length);
+        for (; i < vectorsEnd; i += SPECIES.length()) {
+            toLuma(IntVector.fromArray(SPECIES, rgb, offset + i)).intoArray(luma, lumaOffset + i);
+        }
+        for (; i < length; i++) { // The pixels that don't fill a vector
+            luma[lumaOffset + i] = ImageProcessor.getScaledGreyscaleIntensity(rgb[offset + i]);
+        }
+    }
+
+    @Override
+    public long sumLuma(int[] rgb, int offset, int length) {
+        long sum = 0;
+        int i = 0;
+        int vectorsEnd = SPECIES.loopBound(length);
+        while (i < vectorsEnd) {
+            int flushEnd = Math.min(vectorsEnd, i + VECTORS_PER_FLUSH * SPECIES.length());
+            IntVector lanesSum = IntVector.zero(SPECIES);
+            for (; i < flushEnd; i += SPECIES.length()) {
+                lanesSum = lanesSum.add(toLuma(IntVector.fromArray(SPECIES, rgb, offset + i)));
+            }
+            sum += lanesSum.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) { // The pixels that don't fill a vector
+            sum += ImageProcessor.getScaledGreyscaleIntensity(rgb[offset + i]);
+        }
+        return sum;
+    }
+
+    /*
+     * Converts a vector of packed RGB pixels to their fixed point greyscale intensities.
+     */
+    private static IntVector toLuma(IntVector rgb) {
+        IntVector red = rgb.lanewise(VectorOperators.LSHR, ImageProcessor.RED_SHIFT)
+                           .and(ImageProcessor.CHANNEL_MASK);
+        IntVector green = rgb.lanewise(VectorOperators.LSHR, ImageProcessor.GREEN_SHIFT)
+                             .and(ImageProcessor.CHANNEL_MASK);
+        IntVector blue = rgb.and(ImageProcessor.CHANNEL_MASK);
+        return red.mul(ImageProcessor.RED_WEIGHT_TO_GREYSCALE)
+                  .add(green.mul(ImageProcessor.GREEN_WEIGHT_TO_GREYSCALE))
+                  .add(blue.mul(ImageProcessor.BLUE_WEIGHT_TO_GREYSCALE));
+    }
+}